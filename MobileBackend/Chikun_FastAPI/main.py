@@ -1,11 +1,28 @@
-from fastapi import FastAPI, HTTPException
+from fastapi import FastAPI, HTTPException, Response
 from pydantic import BaseModel
+from typing import List
+import hashlib
+import os
 import joblib
 import numpy as np
 import traceback
 from datetime import datetime
 from fastapi.middleware.cors import CORSMiddleware
 
+from opentelemetry import trace
+from opentelemetry.exporter.otlp.proto.http.trace_exporter import OTLPSpanExporter
+from opentelemetry.instrumentation.fastapi import FastAPIInstrumentor
+from opentelemetry.sdk.resources import Resource
+from opentelemetry.sdk.trace import TracerProvider
+from opentelemetry.sdk.trace.export import BatchSpanProcessor
+
+# Export traces when a collector is configured; incoming traceparent headers join the caller's trace
+if os.getenv("OTEL_EXPORTER_OTLP_ENDPOINT"):
+    provider = TracerProvider(resource=Resource.create({"service.name": os.getenv("OTEL_SERVICE_NAME", "chikun")}))
+    provider.add_span_processor(BatchSpanProcessor(OTLPSpanExporter()))
+    trace.set_tracer_provider(provider)
+tracer = trace.get_tracer(__name__)
+
 app = FastAPI(title="Chikungunya Predictions API")
 
 # Enable CORS for Spring Boot
@@ -17,10 +34,17 @@ app.add_middleware(
     allow_headers=["*"],
 )
 
+FastAPIInstrumentor.instrument_app(app)
+
 # Load model and scaler
 model = joblib.load("chik_model.pkl")
 scaler = joblib.load("scaler.pkl")
 
+# Changes whenever the model or scaler file changes; the backend keys its result cache on it
+MODEL_VERSION = hashlib.sha256(
+    open("chik_model.pkl", "rb").read() + open("scaler.pkl", "rb").read()
+).hexdigest()
+
 # Input model - field names match your training CSV columns
 class Symptoms(BaseModel):
     sex: int
@@ -41,7 +65,7 @@ class Symptoms(BaseModel):
 
 @app.get("/health")
 def health():
-    return {"status": "ok"}
+    return {"status": "ok", "model_version": MODEL_VERSION}
 
 @app.post("/predict_chikun")
 def predict_chikun(data: Symptoms):
@@ -78,3 +102,39 @@ def predict_chikun(data: Symptoms):
     except Exception as e:
         traceback_str = traceback.format_exc()
         raise HTTPException(status_code=500, detail=f"{str(e)}\n{traceback_str}")
+
+
+@app.post("/predict_chikun_batch")
+def predict_chikun_batch(data: List[Symptoms], response: Response):
+    try:
+        response.headers["X-Model-Version"] = MODEL_VERSION
+
+        # One row per request (training order), scored with a single predict() call
+        features = np.array([[
+            d.sex, d.fever, d.cold, d.joint_pains, d.myalgia,
+            d.headache, d.fatigue, d.vomitting, d.arthritis,
+            d.Conjuctivitis, d.Nausea, d.Maculopapular_rash,
+            d.Eye_Pain, d.Chills, d.Swelling
+        ] for d in data], dtype=float)
+        with tracer.start_as_current_span("scale"):
+            features_scaled = scaler.transform(features)
+
+        with tracer.start_as_current_span("predict") as span:
+            span.set_attribute("batch.size", len(data))
+            predictions = model.predict(features_scaled).astype(int)
+            if hasattr(model, "predict_proba"):
+                proba = model.predict_proba(features_scaled)
+                scores = [float(proba[i][p]) for i, p in enumerate(predictions)]
+            else:
+                scores = [None] * len(predictions)
+
+        pred_date = datetime.now().strftime("%Y-%m-%d %H:%M:%S")
+
+        return [
+            {"prediction": int(p), "pred_score": s, "pred_date": pred_date}
+            for p, s in zip(predictions, scores)
+        ]
+
+    except Exception as e:
+        traceback_str = traceback.format_exc()
+        raise HTTPException(status_code=500, detail=f"{str(e)}\n{traceback_str}")
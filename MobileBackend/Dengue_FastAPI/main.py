@@ -1,11 +1,28 @@
-from fastapi import FastAPI, HTTPException
+from fastapi import FastAPI, HTTPException, Response
 from pydantic import BaseModel
+from typing import List
+import hashlib
+import os
 import joblib
 import numpy as np
 import traceback
 from fastapi.middleware.cors import CORSMiddleware
 from datetime import datetime
 
+from opentelemetry import trace
+from opentelemetry.exporter.otlp.proto.http.trace_exporter import OTLPSpanExporter
+from opentelemetry.instrumentation.fastapi import FastAPIInstrumentor
+from opentelemetry.sdk.resources import Resource
+from opentelemetry.sdk.trace import TracerProvider
+from opentelemetry.sdk.trace.export import BatchSpanProcessor
+
+# Export traces when a collector is configured; incoming traceparent headers join the caller's trace
+if os.getenv("OTEL_EXPORTER_OTLP_ENDPOINT"):
+    provider = TracerProvider(resource=Resource.create({"service.name": os.getenv("OTEL_SERVICE_NAME", "dengue")}))
+    provider.add_span_processor(BatchSpanProcessor(OTLPSpanExporter()))
+    trace.set_tracer_provider(provider)
+tracer = trace.get_tracer(__name__)
+
 app = FastAPI(title="Dengue Prediction API")
 
 # Enable CORS so Spring Boot can call it
@@ -17,10 +34,17 @@ app.add_middleware(
     allow_headers=["*"],
 )
 
+FastAPIInstrumentor.instrument_app(app)
+
 # Load model and scaler
 model = joblib.load("dengue_model.pkl")
 scaler = joblib.load("scaler (1).pkl")  # rename your scaler file appropriately
 
+# Changes whenever the model or scaler file changes; the backend keys its result cache on it
+MODEL_VERSION = hashlib.sha256(
+    open("dengue_model.pkl", "rb").read() + open("scaler (1).pkl", "rb").read()
+).hexdigest()
+
 # Input schema: matches the checkboxes in the app
 class Symptoms(BaseModel):
     Fever: int
@@ -30,7 +54,7 @@ class Symptoms(BaseModel):
 
 @app.get("/health")
 def health():
-    return {"status": "ok"}
+    return {"status": "ok", "model_version": MODEL_VERSION}
 
 @app.post("/predict_dengue")
 def predict_dengue(data: Symptoms):
@@ -62,3 +86,34 @@ def predict_dengue(data: Symptoms):
     except Exception as e:
         traceback_str = traceback.format_exc()
         raise HTTPException(status_code=500, detail=f"{str(e)}\n{traceback_str}")
+
+
+@app.post("/predict_dengue_batch")
+def predict_dengue_batch(data: List[Symptoms], response: Response):
+    try:
+        response.headers["X-Model-Version"] = MODEL_VERSION
+
+        # One row per request, scored with a single predict() call
+        features = np.array([[d.Fever, d.Headache, d.JointPain, d.Bleeding] for d in data], dtype=float)
+        with tracer.start_as_current_span("scale"):
+            features_scaled = scaler.transform(features)
+
+        with tracer.start_as_current_span("predict") as span:
+            span.set_attribute("batch.size", len(data))
+            predictions = model.predict(features_scaled).astype(int)
+            if hasattr(model, "predict_proba"):
+                proba = model.predict_proba(features_scaled)
+                scores = [float(proba[i][p]) for i, p in enumerate(predictions)]
+            else:
+                scores = [None] * len(predictions)
+
+        pred_date = datetime.now().strftime("%Y-%m-%d %H:%M:%S")
+
+        return [
+            {"prediction": int(p), "pred_score": s, "pred_date": pred_date}
+            for p, s in zip(predictions, scores)
+        ]
+
+    except Exception as e:
+        traceback_str = traceback.format_exc()
+        raise HTTPException(status_code=500, detail=f"{str(e)}\n{traceback_str}")
@@ -0,0 +1,13 @@
+package com.google.firebase.auth;
+
+import java.util.Map;
+
+// FirebaseToken's constructor is package-private; this is the only way to build one without signing a JWT
+public final class BenchTokens {
+
+    private BenchTokens() {}
+
+    public static FirebaseToken token(String uid, String email, long expiresAtEpochSecond) {
+        return new FirebaseToken(Map.of("sub", uid, "email", email, "exp", expiresAtEpochSecond));
+    }
+}
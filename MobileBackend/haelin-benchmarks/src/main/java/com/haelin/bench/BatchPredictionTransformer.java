@@ -0,0 +1,56 @@
+package com.haelin.bench;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.github.tomakehurst.wiremock.client.ResponseDefinitionBuilder;
+import com.github.tomakehurst.wiremock.extension.ResponseDefinitionTransformerV2;
+import com.github.tomakehurst.wiremock.http.ResponseDefinition;
+import com.github.tomakehurst.wiremock.stubbing.ServeEvent;
+
+/**
+ * Answers /predict_*_batch like the FastAPI services: one {prediction, pred_score} per row, in order.
+ *
+ * The "model" is a fixed rule (positive when at least half the symptoms are present), which is
+ * enough for the proxy benchmark; it only needs the response to match the request in size and shape.
+ */
+public class BatchPredictionTransformer implements ResponseDefinitionTransformerV2 {
+
+    public static final String NAME = "batch-prediction";
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    @Override
+    public ResponseDefinition transform(ServeEvent serveEvent) {
+        ArrayNode results = objectMapper.createArrayNode();
+        try {
+            for (JsonNode row : objectMapper.readTree(serveEvent.getRequest().getBodyAsString())) {
+                int present = 0;
+                for (JsonNode value : row) {
+                    if (value.asDouble() > 0) present++;
+                }
+                double score = row.isEmpty() ? 0 : (double) present / row.size();
+                ObjectNode result = results.addObject();
+                result.put("prediction", score >= 0.5 ? 1 : 0);
+                result.put("pred_score", score);
+            }
+        } catch (JsonProcessingException e) {
+            return ResponseDefinitionBuilder.responseDefinition().withStatus(422).withBody(e.getOriginalMessage()).build();
+        }
+        return ResponseDefinitionBuilder.like(serveEvent.getResponseDefinition()).but()
+                .withBody(results.toString())
+                .build();
+    }
+
+    @Override
+    public boolean applyGlobally() {
+        return false;
+    }
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+}
@@ -0,0 +1,28 @@
+package com.haelin.bench;
+
+import org.openjdk.jmh.Main;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+// JMH's own launcher, except results are written as JSON to target/jmh-result.json unless -rf/-rff say otherwise
+public final class BenchmarkMain {
+
+    private static final Path DEFAULT_RESULT = Path.of("target", "jmh-result.json");
+
+    private BenchmarkMain() {}
+
+    public static void main(String[] args) throws Exception {
+        List<String> options = new ArrayList<>(List.of(args));
+        if (!options.contains("-rf")) {
+            options.addAll(0, List.of("-rf", "json"));
+        }
+        if (!options.contains("-rff")) {
+            Files.createDirectories(DEFAULT_RESULT.getParent());
+            options.addAll(0, List.of("-rff", DEFAULT_RESULT.toString()));
+        }
+        Main.main(options.toArray(new String[0]));
+    }
+}
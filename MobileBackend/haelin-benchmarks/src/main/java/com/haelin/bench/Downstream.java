@@ -0,0 +1,40 @@
+package com.haelin.bench;
+
+import com.github.tomakehurst.wiremock.WireMockServer;
+import com.github.tomakehurst.wiremock.core.WireMockConfiguration;
+import com.haelin.http.DownstreamGuard;
+import com.haelin.http.ResilienceConfig;
+import com.haelin.http.WebClientConfig;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.springframework.web.reactive.function.client.WebClient;
+
+// WireMock stand-ins for Overpass and the FastAPI predictors, plus the same pooled WebClient haelin builds
+public final class Downstream {
+
+    private Downstream() {}
+
+    // Started on a free port; stubs are registered by each benchmark
+    public static WireMockServer start() {
+        WireMockServer server = new WireMockServer(WireMockConfiguration.options()
+                .dynamicPort()
+                .containerThreads(64)
+                .disableRequestJournal()
+                .extensions(new BatchPredictionTransformer()));
+        server.start();
+        return server;
+    }
+
+    // Pool settings as in application.properties; call metrics are recorded as in production
+    public static WebClient webClient() {
+        return new WebClientConfig().downstreamWebClient(WebClient.builder(), new SimpleMeterRegistry(),
+                200, 1000, 2000, 10000);
+    }
+
+    // Guard settings as in application.properties (the predictor ones for anything but "overpass")
+    public static DownstreamGuard guard(String name) {
+        ResilienceConfig config = new ResilienceConfig(new SimpleMeterRegistry(), 50, 20, 30000);
+        return name.equals("overpass")
+                ? config.guard(name, 8000, 4000, 32)
+                : config.guard(name, 3000, 1000, 32);
+    }
+}
@@ -0,0 +1,54 @@
+package com.haelin.bench;
+
+import com.google.auth.oauth2.AccessToken;
+import com.google.auth.oauth2.GoogleCredentials;
+import com.google.cloud.firestore.Firestore;
+import com.google.firebase.FirebaseApp;
+import com.google.firebase.FirebaseOptions;
+import com.google.firebase.cloud.FirestoreClient;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+
+/**
+ * The default FirebaseApp, pointed at the local Firestore emulator.
+ *
+ * The Firestore client switches to the emulator by itself when FIRESTORE_EMULATOR_HOST is set.
+ * Without it the benchmarks refuse to start rather than write to a real project.
+ */
+public final class Emulator {
+
+    public static final String PROJECT_ID = System.getenv().getOrDefault("HAELIN_BENCH_PROJECT", "haelin-bench");
+
+    private static final String HOST = System.getenv("FIRESTORE_EMULATOR_HOST");
+
+    private Emulator() {}
+
+    // Services call FirestoreClient.getFirestore() themselves, so the default app has to exist first
+    public static synchronized Firestore firestore() {
+        if (HOST == null || HOST.isBlank()) {
+            throw new IllegalStateException("FIRESTORE_EMULATOR_HOST is not set; start the Firestore emulator first");
+        }
+        if (FirebaseApp.getApps().isEmpty()) {
+            FirebaseApp.initializeApp(FirebaseOptions.builder()
+                    .setProjectId(PROJECT_ID)
+                    .setCredentials(GoogleCredentials.create(new AccessToken("emulator", null)))
+                    .build());
+        }
+        return FirestoreClient.getFirestore();
+    }
+
+    // Deletes every document in the emulator's database, so each trial starts from the same state
+    public static void clear() throws IOException, InterruptedException {
+        firestore();
+        URI uri = URI.create("http://" + HOST + "/emulator/v1/projects/" + PROJECT_ID + "/databases/(default)/documents");
+        HttpResponse<Void> response = HttpClient.newHttpClient()
+                .send(HttpRequest.newBuilder(uri).DELETE().build(), HttpResponse.BodyHandlers.discarding());
+        if (response.statusCode() != 200) {
+            throw new IOException("Could not clear the Firestore emulator: HTTP " + response.statusCode());
+        }
+    }
+}
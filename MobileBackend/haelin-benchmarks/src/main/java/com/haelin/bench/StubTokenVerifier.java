@@ -0,0 +1,32 @@
+package com.haelin.bench;
+
+import com.google.firebase.auth.BenchTokens;
+import com.google.firebase.auth.FirebaseToken;
+import com.haelin.auth.TokenVerifier;
+import io.micrometer.core.instrument.MeterRegistry;
+
+import java.time.Instant;
+
+// Accepts tokens of the form "token:<uid>" without calling Firebase; caching is still TokenVerifier's own
+public class StubTokenVerifier extends TokenVerifier {
+
+    public static final String PREFIX = "token:";
+
+    public StubTokenVerifier(MeterRegistry meterRegistry, long maxTokens) {
+        super(meterRegistry, maxTokens);
+    }
+
+    public static String tokenFor(String uid) {
+        return PREFIX + uid;
+    }
+
+    public static String emailFor(String uid) {
+        return uid + "@bench.haelin";
+    }
+
+    @Override
+    protected FirebaseToken decode(String idToken) {
+        String uid = idToken.substring(PREFIX.length());
+        return BenchTokens.token(uid, emailFor(uid), Instant.now().plusSeconds(3600).getEpochSecond());
+    }
+}
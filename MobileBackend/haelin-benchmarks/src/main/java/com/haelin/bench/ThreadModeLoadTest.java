@@ -0,0 +1,117 @@
+package com.haelin.bench;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Closed-loop HTTP load against a running haelin, for comparing platform and virtual request threads.
+ *
+ * Each of N clients sends the next request as soon as the last one answered, for a fixed time per
+ * concurrency level. Throughput, p50/p99 latency and non-2xx answers are printed per level. Run it
+ * once against haelin started with HAELIN_VIRTUAL_THREADS=false and once with =true (see README).
+ *
+ *   java -cp target/benchmarks.jar com.haelin.bench.ThreadModeLoadTest \
+ *       [baseUrl] [path] [concurrency levels] [seconds per level]
+ *
+ * Defaults: http://localhost:8080, /haelin-app/medrec/MR001 (a blocking Firestore document read),
+ * 50,200,400,800 clients, 20 seconds. Set HAELIN_TOKEN to a Firebase ID token to load an endpoint that
+ * needs sign-in, such as the admin-only /haelin-app/medrec/all?limit=50.
+ */
+public final class ThreadModeLoadTest {
+
+    private ThreadModeLoadTest() {}
+
+    public static void main(String[] args) throws Exception {
+        String baseUrl = args.length > 0 ? args[0] : "http://localhost:8080";
+        String path = args.length > 1 ? args[1] : "/haelin-app/medrec/MR001";
+        int[] levels = Arrays.stream((args.length > 2 ? args[2] : "50,200,400,800").split(","))
+                .mapToInt(Integer::parseInt).toArray();
+        Duration perLevel = Duration.ofSeconds(args.length > 3 ? Long.parseLong(args[3]) : 20);
+
+        HttpClient client = HttpClient.newBuilder()
+                .executor(Executors.newVirtualThreadPerTaskExecutor())
+                .connectTimeout(Duration.ofSeconds(5))
+                .build();
+        HttpRequest.Builder builder = HttpRequest.newBuilder(URI.create(baseUrl + path))
+                .timeout(Duration.ofSeconds(30))
+                .GET();
+        String token = System.getenv("HAELIN_TOKEN");
+        if (token != null && !token.isBlank()) {
+            builder.header("Authorization", "Bearer " + token);
+        }
+        HttpRequest request = builder.build();
+
+        System.out.printf("%s%s, %ds per level%n", baseUrl, path, perLevel.toSeconds());
+        System.out.println("clients   req/s     p50 ms    p99 ms    errors");
+        for (int clients : levels) {
+            run(client, request, clients, Duration.ofSeconds(3));   // warm-up, not reported
+            Result result = run(client, request, clients, perLevel);
+            System.out.printf(Locale.ROOT, "%-9d %-9.1f %-9.1f %-9.1f %d%n", clients,
+                    result.latenciesNanos.length / (perLevel.toNanos() / 1e9),
+                    percentile(result.latenciesNanos, 0.50) / 1e6,
+                    percentile(result.latenciesNanos, 0.99) / 1e6,
+                    result.errors);
+        }
+    }
+
+    private static final class Result {
+        private final long[] latenciesNanos;
+        private final long errors;
+
+        private Result(long[] latenciesNanos, long errors) {
+            this.latenciesNanos = latenciesNanos;
+            this.errors = errors;
+        }
+    }
+
+    private static Result run(HttpClient client, HttpRequest request, int clients, Duration duration)
+            throws Exception {
+        long deadline = System.nanoTime() + duration.toNanos();
+        AtomicLong errors = new AtomicLong();
+        List<Future<List<Long>>> workers = new ArrayList<>(clients);
+
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int i = 0; i < clients; i++) {
+                workers.add(executor.submit(() -> {
+                    List<Long> latencies = new ArrayList<>();
+                    while (System.nanoTime() < deadline) {
+                        long start = System.nanoTime();
+                        try {
+                            HttpResponse<Void> response = client.send(request, HttpResponse.BodyHandlers.discarding());
+                            if (response.statusCode() / 100 != 2) errors.incrementAndGet();
+                        } catch (Exception e) {
+                            errors.incrementAndGet();
+                        }
+                        latencies.add(System.nanoTime() - start);
+                    }
+                    return latencies;
+                }));
+            }
+
+            List<Long> all = new ArrayList<>();
+            for (Future<List<Long>> worker : workers) {
+                all.addAll(worker.get());
+            }
+            long[] sorted = all.stream().mapToLong(Long::longValue).sorted().toArray();
+            return new Result(sorted, errors.get());
+        }
+    }
+
+    private static double percentile(long[] sorted, double p) {
+        if (sorted.length == 0) {
+            return Double.NaN;
+        }
+        return sorted[Math.min(sorted.length - 1, (int) Math.ceil(p * sorted.length) - 1)];
+    }
+}
@@ -0,0 +1,61 @@
+package com.haelin.id;
+
+import com.haelin.bench.Emulator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * nextId() under 1, 8 and 64 concurrent writers against the emulator's counter document.
+ * blockSize=1 is one counter transaction per ID (what a per-record counter would cost);
+ * blockSize=100 is the leased default.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class IdAllocatorBenchmark {
+
+    @Param({"1", "100"})
+    public int blockSize;
+
+    private IdAllocator allocator;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        Emulator.clear();
+        allocator = new LeasedIdAllocator(Emulator.firestore(), "benchCounter", "BN", blockSize, transaction -> 0L);
+    }
+
+    @Benchmark
+    @Threads(1)
+    public String oneWriter() throws Exception {
+        return allocator.nextId();
+    }
+
+    @Benchmark
+    @Threads(8)
+    public String eightWriters() throws Exception {
+        return allocator.nextId();
+    }
+
+    @Benchmark
+    @Threads(64)
+    public String sixtyFourWriters() throws Exception {
+        return allocator.nextId();
+    }
+}
@@ -0,0 +1,79 @@
+package com.haelin.service;
+
+import com.google.cloud.firestore.Firestore;
+import com.google.cloud.firestore.WriteBatch;
+import com.haelin.bench.Emulator;
+import com.haelin.model.MedRec;
+import com.haelin.model.User;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Date;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+// getStats from the counters document (cacheTtlMs=0 reads it every call) and the count()-based reconciliation
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class DashboardServiceBenchmark {
+
+    @Param({"0", "5000"})
+    public long cacheTtlMs;
+
+    @Param({"2000"})
+    public int seededRecords;
+
+    private DashboardService dashboardService;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        Emulator.clear();
+        Firestore firestore = Emulator.firestore();
+
+        // Firestore batches hold at most 500 writes
+        WriteBatch batch = firestore.batch();
+        for (int i = 0; i < seededRecords; i++) {
+            if (i > 0 && i % 500 == 0) {
+                batch.commit().get();
+                batch = firestore.batch();
+            }
+            String diagnosis = i % 3 == 0 ? "Dengue" : i % 3 == 1 ? "Chikungunya" : "None";
+            batch.set(firestore.collection("medical_records").document("MR" + i),
+                    new MedRec("MR" + i, "bench-user-" + (i % 100), diagnosis, "Low", "2025-01-01", "Fever", 0.5));
+            if (i < 100) {
+                batch.set(firestore.collection("users").document("bench-user-" + i),
+                        new User("bench-user-" + i, "Bench", null, null, "Colombo", null, null, new Date()));
+            }
+        }
+        batch.commit().get();
+
+        StatsCounterService statsCounterService = new StatsCounterService(firestore);
+        dashboardService = new DashboardService(statsCounterService, new SimpleMeterRegistry(), cacheTtlMs);
+        dashboardService.reconcileCounters();
+    }
+
+    @Benchmark
+    public Map<String, Object> getStats() throws Exception {
+        return dashboardService.getStats();
+    }
+
+    @Benchmark
+    public void reconcileCounters() throws Exception {
+        dashboardService.reconcileCounters();
+    }
+}
@@ -0,0 +1,117 @@
+package com.haelin.service;
+
+import com.github.tomakehurst.wiremock.WireMockServer;
+import com.haelin.bench.Downstream;
+import com.haelin.model.Hospital;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.web.reactive.function.client.WebClient;
+
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import static com.github.tomakehurst.wiremock.client.WireMock.aResponse;
+import static com.github.tomakehurst.wiremock.client.WireMock.any;
+import static com.github.tomakehurst.wiremock.client.WireMock.urlPathEqualTo;
+
+// parseHospitals on its own, and getNearbyHospitals cold (every tile fetched from the stub) and warm
+// (tiles served from memory after warm-up)
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class MapServiceBenchmark {
+
+    private static final double CENTER_LAT = 6.9271;
+    private static final double CENTER_LON = 79.8612;
+
+    @Param({"50", "1000"})
+    public int hospitals;
+
+    private WireMockServer overpass;
+    private WebClient webClient;
+    private MapService mapService;
+    private String overpassResponse;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        overpassResponse = overpassResponse(hospitals);
+        overpass = Downstream.start();
+        overpass.stubFor(any(urlPathEqualTo("/api/interpreter"))
+                .willReturn(aResponse().withHeader("Content-Type", "application/json").withBody(overpassResponse)));
+
+        webClient = Downstream.webClient();
+        mapService = newService();
+    }
+
+    private MapService newService() {
+        return new MapService(webClient, Downstream.guard("overpass"), new SimpleMeterRegistry(),
+                overpass.baseUrl() + "/api/interpreter", "", 0, 360, 1440, 10000);
+    }
+
+    // A service with an empty tile cache for every call, so each lookup loads its tiles
+    @State(Scope.Thread)
+    public static class Cold {
+        private MapService mapService;
+
+        @Setup(Level.Invocation)
+        public void setUp(MapServiceBenchmark benchmark) {
+            mapService = benchmark.newService();
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        overpass.stop();
+    }
+
+    @Benchmark
+    public List<Hospital> parseHospitals() {
+        return mapService.parseHospitals(overpassResponse);
+    }
+
+    @Benchmark
+    public List<Hospital> getNearbyHospitals() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        double lat = CENTER_LAT + random.nextDouble(-0.05, 0.05);
+        double lon = CENTER_LON + random.nextDouble(-0.05, 0.05);
+        return mapService.getNearbyHospitals(lat, lon, 5000).block();
+    }
+
+    @Benchmark
+    public List<Hospital> getNearbyHospitalsCold(Cold cold) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        double lat = CENTER_LAT + random.nextDouble(-0.05, 0.05);
+        double lon = CENTER_LON + random.nextDouble(-0.05, 0.05);
+        return cold.mapService.getNearbyHospitals(lat, lon, 5000).block();
+    }
+
+    // Overpass "out;" output for hospital nodes scattered over a 0.2 degree square
+    private static String overpassResponse(int count) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        StringBuilder json = new StringBuilder("{\"version\":0.6,\"generator\":\"Overpass API\",\"elements\":[");
+        for (int i = 0; i < count; i++) {
+            if (i > 0) json.append(',');
+            json.append(String.format(Locale.ROOT,
+                    "{\"type\":\"node\",\"id\":%d,\"lat\":%.7f,\"lon\":%.7f,\"tags\":{\"amenity\":\"hospital\",\"name\":\"Hospital %d\"}}",
+                    1000 + i, CENTER_LAT + random.nextDouble(-0.1, 0.1), CENTER_LON + random.nextDouble(-0.1, 0.1), i));
+        }
+        return json.append("]}").toString();
+    }
+}
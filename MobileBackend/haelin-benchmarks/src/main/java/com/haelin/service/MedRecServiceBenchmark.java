@@ -0,0 +1,119 @@
+package com.haelin.service;
+
+import com.google.cloud.firestore.Firestore;
+import com.haelin.auth.TokenVerifier;
+import com.haelin.bench.Emulator;
+import com.haelin.id.LeasedIdAllocator;
+import com.haelin.model.MedRec;
+import com.haelin.readmodel.MedRecReadModel;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+// createRecord (leased ID + one WriteBatch) and getRecordsByUserId, with and without the local read model
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class MedRecServiceBenchmark {
+
+    private static final String[] DIAGNOSES = {"Dengue", "Chikungunya", "None"};
+
+    @Param({"false", "true"})
+    public boolean readModel;
+
+    @Param({"1000"})
+    public int seededRecords;
+
+    @Param({"50"})
+    public int users;
+
+    private MedRecService medRecService;
+    private MedRecReadModel medRecReadModel;
+    private Path logDir;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        Emulator.clear();
+        Firestore firestore = Emulator.firestore();
+        MeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+        StatsCounterService statsCounterService = new StatsCounterService(firestore);
+        UserService userService = new UserService(statsCounterService, new TokenVerifier(meterRegistry, 10000),
+                meterRegistry, 10000, 10);
+        logDir = Files.createTempDirectory("medrec-bench");
+        medRecReadModel = new MedRecReadModel(firestore, meterRegistry, readModel,
+                logDir.resolve("medrec-events.log").toString(), 16 << 20, 256L << 20);
+        medRecService = new MedRecService(
+                new LeasedIdAllocator(firestore, "medRecCounter", "MR", 100, transaction -> 0L),
+                statsCounterService, medRecReadModel, new OutbreakService(firestore, userService, 365));
+
+        for (int i = 0; i < seededRecords; i++) {
+            medRecService.createRecord(record());
+        }
+
+        // The listener's first snapshot must land before reads are served locally
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+        while (readModel && !medRecReadModel.isReady()) {
+            if (System.nanoTime() > deadline) {
+                throw new IllegalStateException("Read model did not catch up with the emulator");
+            }
+            Thread.sleep(50);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        medRecReadModel.destroy();
+        try (var files = Files.walk(logDir)) {
+            files.sorted((a, b) -> b.compareTo(a)).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    @Benchmark
+    public String createRecord() throws Exception {
+        return medRecService.createRecord(record());
+    }
+
+    @Benchmark
+    public List<MedRec> getRecordsByUserId() throws Exception {
+        return medRecService.getRecordsByUserId(randomUser(), null);
+    }
+
+    private MedRec record() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        MedRec record = new MedRec();
+        record.setUserId(randomUser());
+        record.setDiagnosis(DIAGNOSES[random.nextInt(DIAGNOSES.length)]);
+        record.setRiskStatus(random.nextBoolean() ? "High" : "Low");
+        record.setDate(LocalDate.now().minusDays(random.nextInt(365)).toString());
+        record.setSymptoms("Fever, Headache");
+        record.setPredScore(random.nextDouble());
+        return record;
+    }
+
+    private String randomUser() {
+        return "bench-user-" + ThreadLocalRandom.current().nextInt(users);
+    }
+}
@@ -0,0 +1,119 @@
+package com.haelin.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.tomakehurst.wiremock.WireMockServer;
+import com.github.tomakehurst.wiremock.client.ResponseDefinitionBuilder;
+import com.google.cloud.firestore.Firestore;
+import com.haelin.bench.BatchPredictionTransformer;
+import com.haelin.bench.Downstream;
+import com.haelin.bench.Emulator;
+import com.haelin.id.LeasedIdAllocator;
+import com.haelin.inference.DiseaseModels;
+import com.haelin.repository.PredRepository;
+import com.haelin.repository.WriteBehindQueue;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.file.Files;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import static com.github.tomakehurst.wiremock.client.WireMock.aResponse;
+import static com.github.tomakehurst.wiremock.client.WireMock.post;
+import static com.github.tomakehurst.wiremock.client.WireMock.urlPathEqualTo;
+
+/**
+ * The prediction proxy: micro-batching, the result cache, the FastAPI call and (optionally) saving.
+ *
+ * The FastAPI stand-in only sends X-Model-Version when cached=true; without a version nothing is
+ * memoized, so every row goes to the stub. persist=true also writes each batch to the emulator.
+ * Pass -p modelsDir=../haelin/models to score in-process with the exported ONNX models instead.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+@Threads(16)
+public class PredictServiceBenchmark {
+
+    private static final String[] DENGUE_FEATURES = {"Fever", "Headache", "JointPain", "Bleeding"};
+
+    @Param({"false", "true"})
+    public boolean cached;
+
+    @Param({"false", "true"})
+    public boolean persist;
+
+    @Param({""})
+    public String modelsDir;
+
+    private WireMockServer fastApi;
+    private PredictService predictService;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        ResponseDefinitionBuilder response = aResponse()
+                .withHeader("Content-Type", "application/json")
+                .withTransformers(BatchPredictionTransformer.NAME);
+        if (cached) {
+            response = response.withHeader("X-Model-Version", "bench");
+        }
+        fastApi = Downstream.start();
+        fastApi.stubFor(post(urlPathEqualTo("/predict_dengue_batch")).willReturn(response));
+        fastApi.stubFor(post(urlPathEqualTo("/predict_chikun_batch")).willReturn(response));
+
+        ObjectMapper objectMapper = new ObjectMapper();
+        MeterRegistry meterRegistry = new SimpleMeterRegistry();
+        PredService predService = null;
+        if (persist) {
+            Emulator.clear();
+            Firestore firestore = Emulator.firestore();
+            WriteBehindQueue writeBehind = new WriteBehindQueue(firestore, objectMapper, meterRegistry,
+                    false, "unused.journal", 1, false, 0);
+            predService = new PredService(firestore, new PredRepository(firestore, writeBehind),
+                    new LeasedIdAllocator(firestore, "predictionCounter", "PR", 100, transaction -> 0L));
+        }
+
+        // An empty directory has no .onnx files, so both diseases go to the stub
+        String models = modelsDir.isEmpty() ? Files.createTempDirectory("no-models").toString() : modelsDir;
+        predictService = new PredictService(Downstream.webClient(), new DiseaseModels(models), predService,
+                Downstream.guard("dengue"), Downstream.guard("chikun"), objectMapper, meterRegistry,
+                fastApi.baseUrl() + "/predict_dengue_batch", fastApi.baseUrl() + "/predict_chikun_batch",
+                fastApi.baseUrl() + "/health", fastApi.baseUrl() + "/health",
+                65536, persist, 64, 5, 10000);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        predictService.destroy();
+        fastApi.stop();
+    }
+
+    @Benchmark
+    public String predictDengue() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        Map<String, Object> payload = new LinkedHashMap<>();
+        for (String feature : DENGUE_FEATURES) {
+            payload.put(feature, random.nextInt(2));
+        }
+        return predictService.predictDengue(payload).block();
+    }
+}
@@ -0,0 +1,73 @@
+package com.haelin.service;
+
+import com.google.cloud.firestore.Firestore;
+import com.google.cloud.firestore.WriteBatch;
+import com.haelin.bench.Emulator;
+import com.haelin.bench.StubTokenVerifier;
+import com.haelin.model.User;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Date;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+// verifyToken per request: token cache, then the profile cache (profileCacheSize=0 reads Firestore every call)
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class UserServiceBenchmark {
+
+    @Param({"0", "10000"})
+    public long profileCacheSize;
+
+    @Param({"1000"})
+    public int users;
+
+    private UserService userService;
+    private String[] tokens;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        Emulator.clear();
+        Firestore firestore = Emulator.firestore();
+        MeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+        tokens = new String[users];
+        WriteBatch batch = firestore.batch();
+        for (int i = 0; i < users; i++) {
+            if (i > 0 && i % 500 == 0) {
+                batch.commit().get();
+                batch = firestore.batch();
+            }
+            String uid = "bench-user-" + i;
+            batch.set(firestore.collection("users").document(uid),
+                    new User(uid, "Bench " + i, null, StubTokenVerifier.emailFor(uid), "Colombo", null, null, new Date()));
+            tokens[i] = StubTokenVerifier.tokenFor(uid);
+        }
+        batch.commit().get();
+
+        userService = new UserService(new StatsCounterService(firestore),
+                new StubTokenVerifier(meterRegistry, 10000), meterRegistry, profileCacheSize, 10);
+    }
+
+    @Benchmark
+    public User verifyToken() throws Exception {
+        return userService.verifyToken(tokens[ThreadLocalRandom.current().nextInt(tokens.length)]);
+    }
+}
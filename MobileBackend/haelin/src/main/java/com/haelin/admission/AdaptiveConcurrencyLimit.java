@@ -0,0 +1,109 @@
+package com.haelin.admission;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A limit on requests in flight that follows observed latency, after Netflix's Gradient2 limiter.
+ *
+ * A long-running average of request latency stands in for the unloaded service time. When recent
+ * requests are more than latency-tolerance times slower than that, requests are queueing
+ * somewhere (Firestore, the predictors, the servlet threads), and the limit shrinks in proportion.
+ * Otherwise it grows by about sqrt(limit) per sample. Requests over the limit are refused at
+ * once, so overload shows up as fast 503s instead of everyone waiting seconds.
+ *
+ * Exported as haelin.shed.limit, haelin.shed.in_flight and haelin.shed.rejected.
+ */
+@Component
+public class AdaptiveConcurrencyLimit {
+
+    // Weight of the newest sample in the short (about 10 requests) and long (about 600) averages
+    private static final double SHORT_WEIGHT = 0.1;
+    private static final double LONG_WEIGHT = 1.0 / 600;
+    private static final double SMOOTHING = 0.2;
+
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final Counter rejected;
+    private final boolean enabled;
+    private final int minLimit;
+    private final int maxLimit;
+    private final double tolerance;
+
+    private volatile int limit;
+
+    // Guarded by this
+    private double estimatedLimit;
+    private double shortLatency;
+    private double longLatency;
+
+    @Autowired
+    public AdaptiveConcurrencyLimit(MeterRegistry meterRegistry,
+                                    @Value("${haelin.shed.enabled:true}") boolean enabled,
+                                    @Value("${haelin.shed.initial-limit:50}") int initialLimit,
+                                    @Value("${haelin.shed.min-limit:10}") int minLimit,
+                                    @Value("${haelin.shed.max-limit:1000}") int maxLimit,
+                                    @Value("${haelin.shed.latency-tolerance:1.5}") double tolerance) {
+        this.enabled = enabled;
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.tolerance = tolerance;
+        this.estimatedLimit = Math.max(minLimit, Math.min(maxLimit, initialLimit));
+        this.limit = (int) estimatedLimit;
+
+        this.rejected = Counter.builder("haelin.shed.rejected").register(meterRegistry);
+        Gauge.builder("haelin.shed.limit", this, l -> l.limit).register(meterRegistry);
+        Gauge.builder("haelin.shed.in_flight", inFlight, AtomicInteger::get).register(meterRegistry);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public boolean tryAcquire() {
+        while (true) {
+            int current = inFlight.get();
+            if (current >= limit) {
+                rejected.increment();
+                return false;
+            }
+            if (inFlight.compareAndSet(current, current + 1)) {
+                return true;
+            }
+        }
+    }
+
+    // Once per admitted request. Requests that failed or timed out are released without a sample.
+    public void release(long latencyNanos, boolean sample) {
+        int busy = inFlight.getAndDecrement();
+        if (sample && latencyNanos > 0) {
+            update(latencyNanos, busy);
+        }
+    }
+
+    private synchronized void update(long latency, int busy) {
+        shortLatency = shortLatency == 0 ? latency : shortLatency + SHORT_WEIGHT * (latency - shortLatency);
+        longLatency = longLatency == 0 ? latency : longLatency + LONG_WEIGHT * (latency - longLatency);
+
+        // After a long overload the long average has drifted up with it; let it come back down
+        if (longLatency / shortLatency > 2) {
+            longLatency *= 0.95;
+        }
+
+        // A mostly idle server says nothing about its capacity
+        if (busy < estimatedLimit / 2) {
+            return;
+        }
+
+        double gradient = Math.max(0.5, Math.min(1.0, tolerance * longLatency / shortLatency));
+        double next = estimatedLimit * gradient + Math.sqrt(estimatedLimit);
+        next = estimatedLimit * (1 - SMOOTHING) + next * SMOOTHING;
+        estimatedLimit = Math.max(minLimit, Math.min(maxLimit, next));
+        limit = (int) estimatedLimit;
+    }
+}
@@ -0,0 +1,55 @@
+package com.haelin.admission;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Token buckets for any number of keys in one fixed array, using GCRA (the generic cell rate
+ * algorithm). A slot holds only the time at which its bucket would next be full, so taking a
+ * token is a single compare-and-set; there are no locks and no refill timers.
+ *
+ * Keys are hashed onto stripes rather than stored, so memory is fixed and nothing has to be
+ * evicted. Two keys on the same stripe share a bucket. With far more stripes than active callers
+ * that is rare, and it can only make a limit stricter, never looser.
+ */
+final class GcraBuckets {
+
+    private final AtomicLongArray tat;
+    private final int mask;
+    private final long interval;
+    private final long tolerance;
+
+    // nanoTime may be negative; measured from here, an untouched slot (0) is always in the past
+    private final long origin = System.nanoTime();
+
+    GcraBuckets(int stripes, long permitsPerMinute, int burst) {
+        int size = Integer.highestOneBit(Math.max(1, stripes - 1)) << 1;
+        this.tat = new AtomicLongArray(size);
+        this.mask = size - 1;
+        this.interval = TimeUnit.MINUTES.toNanos(1) / Math.max(1, permitsPerMinute);
+        this.tolerance = interval * (Math.max(1, burst) - 1);
+    }
+
+    // 0 if a token was taken, else the nanoseconds until one will be available
+    long tryAcquire(String key) {
+        int slot = spread(key.hashCode()) & mask;
+        long now = System.nanoTime() - origin;
+        while (true) {
+            long current = tat.get(slot);
+            long start = Math.max(current, now);
+            long wait = start - now - tolerance;
+            if (wait > 0) {
+                return wait;
+            }
+            if (tat.compareAndSet(slot, current, start + interval)) {
+                return 0;
+            }
+        }
+    }
+
+    // The index keeps only the low bits, so fold the whole hash into them first
+    private static int spread(int h) {
+        h *= 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
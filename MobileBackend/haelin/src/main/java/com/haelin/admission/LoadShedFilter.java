@@ -0,0 +1,108 @@
+package com.haelin.admission;
+
+import jakarta.servlet.AsyncEvent;
+import jakarta.servlet.AsyncListener;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import java.io.IOException;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Admits a request only while {@link AdaptiveConcurrencyLimit} has room, and reports its latency
+ * back to the limit when it finishes. Mono endpoints (/predict, /map) finish asynchronously, so
+ * their slot is held until the async response completes.
+ *
+ * Runs after RateLimitFilter: requests refused there take no slot and leave no (fast) sample.
+ */
+public class LoadShedFilter extends OncePerRequestFilter {
+
+    private static final Set<String> EXPORTS = Set.of("/medrec/all", "/prediction/all", "/notification/all", "/user/all");
+
+    private final AdaptiveConcurrencyLimit limit;
+
+    public LoadShedFilter(AdaptiveConcurrencyLimit limit) {
+        this.limit = limit;
+    }
+
+    // Streams and uploads hold a request open for minutes; they would pin slots and skew the latency
+    @Override
+    protected boolean shouldNotFilter(HttpServletRequest request) {
+        if (!limit.isEnabled()) {
+            return true;
+        }
+        String path = request.getRequestURI().substring(request.getContextPath().length());
+        return path.startsWith("/actuator/")
+                || path.equals("/notification/stream")
+                || path.equals("/medrec/import")
+                || isExport(request, path);
+    }
+
+    // Only the streamed /all exports; any other request with a format parameter is admitted as usual
+    private static boolean isExport(HttpServletRequest request, String path) {
+        if (!"GET".equals(request.getMethod()) || !EXPORTS.contains(path)) {
+            return false;
+        }
+        String format = request.getParameter("format");
+        return "ndjson".equals(format) || "csv".equals(format);
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain)
+            throws ServletException, IOException {
+        if (!limit.tryAcquire()) {
+            Refusals.write(response, HttpStatus.SERVICE_UNAVAILABLE, TimeUnit.SECONDS.toNanos(1),
+                    "Server busy, try again shortly");
+            return;
+        }
+
+        long start = System.nanoTime();
+        try {
+            chain.doFilter(request, response);
+        } catch (Throwable t) {
+            limit.release(System.nanoTime() - start, false);
+            throw t;
+        }
+
+        if (request.isAsyncStarted()) {
+            request.getAsyncContext().addListener(new Release(start));
+        } else {
+            limit.release(System.nanoTime() - start, true);
+        }
+    }
+
+    // Frees the slot once the async response is done; onComplete follows onTimeout and onError too
+    private final class Release implements AsyncListener {
+        private final long start;
+        private boolean failed;
+
+        private Release(long start) {
+            this.start = start;
+        }
+
+        @Override
+        public void onComplete(AsyncEvent event) {
+            limit.release(System.nanoTime() - start, !failed);
+        }
+
+        @Override
+        public void onTimeout(AsyncEvent event) {
+            failed = true;
+        }
+
+        @Override
+        public void onError(AsyncEvent event) {
+            failed = true;
+        }
+
+        @Override
+        public void onStartAsync(AsyncEvent event) {
+            event.getAsyncContext().addListener(this);
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package com.haelin.admission;
+
+import com.haelin.auth.FirebasePrincipal;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.http.HttpStatus;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import java.io.IOException;
+
+/**
+ * Refuses callers over their rate with 429 and a Retry-After. Runs after
+ * FirebaseAuthenticationFilter, so signed-in callers are limited by uid wherever they connect from.
+ */
+public class RateLimitFilter extends OncePerRequestFilter {
+
+    private final RateLimiter rateLimiter;
+
+    public RateLimitFilter(RateLimiter rateLimiter) {
+        this.rateLimiter = rateLimiter;
+    }
+
+    @Override
+    protected boolean shouldNotFilter(HttpServletRequest request) {
+        return !rateLimiter.isEnabled();
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain)
+            throws ServletException, IOException {
+        String path = request.getRequestURI().substring(request.getContextPath().length());
+        long wait = rateLimiter.tryAcquire(path, caller(request));
+        if (wait > 0) {
+            Refusals.write(response, HttpStatus.TOO_MANY_REQUESTS, wait, "Too many requests, slow down");
+            return;
+        }
+        chain.doFilter(request, response);
+    }
+
+    private static String caller(HttpServletRequest request) {
+        Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
+        if (authentication != null && authentication.getPrincipal() instanceof FirebasePrincipal principal) {
+            return "uid:" + principal.getUid();
+        }
+        return "ip:" + request.getRemoteAddr();
+    }
+}
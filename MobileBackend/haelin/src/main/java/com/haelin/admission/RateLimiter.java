@@ -0,0 +1,77 @@
+package com.haelin.admission;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.util.AntPathMatcher;
+
+import java.util.List;
+
+/**
+ * Per-caller request rates, keyed by Firebase uid (client address for anonymous calls; behind a
+ * proxy that is the forwarded address, see server.forward-headers-strategy). Off by default.
+ *
+ * Each endpoint rule has its own buckets, so one caller's symptom checks and record uploads are
+ * limited independently of each other. The first rule whose pattern matches a path applies;
+ * everything else falls under the catch-all rule. Rejections are counted as
+ * haelin.ratelimit.rejected, tagged by rule.
+ */
+@Component
+public class RateLimiter {
+
+    private static final class Rule {
+        private final String pattern;
+        private final GcraBuckets buckets;
+        private final Counter rejected;
+
+        private Rule(String name, String pattern, GcraBuckets buckets, MeterRegistry meterRegistry) {
+            this.pattern = pattern;
+            this.buckets = buckets;
+            this.rejected = Counter.builder("haelin.ratelimit.rejected").tag("rule", name).register(meterRegistry);
+        }
+    }
+
+    private final AntPathMatcher matcher = new AntPathMatcher();
+    private final boolean enabled;
+    private final List<Rule> rules;
+
+    @Autowired
+    public RateLimiter(MeterRegistry meterRegistry,
+                       @Value("${haelin.ratelimit.enabled:false}") boolean enabled,
+                       @Value("${haelin.ratelimit.stripes:65536}") int stripes,
+                       @Value("${haelin.ratelimit.predict.per-minute:60}") int predictPerMinute,
+                       @Value("${haelin.ratelimit.predict.burst:20}") int predictBurst,
+                       @Value("${haelin.ratelimit.medrec-add.per-minute:30}") int medrecAddPerMinute,
+                       @Value("${haelin.ratelimit.medrec-add.burst:10}") int medrecAddBurst,
+                       @Value("${haelin.ratelimit.default.per-minute:600}") int defaultPerMinute,
+                       @Value("${haelin.ratelimit.default.burst:100}") int defaultBurst) {
+        this.enabled = enabled;
+        this.rules = List.of(
+                new Rule("predict", "/predict/**",
+                        new GcraBuckets(stripes, predictPerMinute, predictBurst), meterRegistry),
+                new Rule("medrec-add", "/medrec/add",
+                        new GcraBuckets(stripes, medrecAddPerMinute, medrecAddBurst), meterRegistry),
+                new Rule("default", "/**",
+                        new GcraBuckets(stripes, defaultPerMinute, defaultBurst), meterRegistry));
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    // 0 if the request may go ahead, else the nanoseconds until the caller may try again
+    public long tryAcquire(String path, String caller) {
+        for (Rule rule : rules) {
+            if (matcher.match(rule.pattern, path)) {
+                long wait = rule.buckets.tryAcquire(caller);
+                if (wait > 0) {
+                    rule.rejected.increment();
+                }
+                return wait;
+            }
+        }
+        return 0;
+    }
+}
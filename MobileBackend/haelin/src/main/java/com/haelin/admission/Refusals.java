@@ -0,0 +1,24 @@
+package com.haelin.admission;
+
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+// The response for a request turned away at the edge, in the same {"error": ...} shape as the controllers
+final class Refusals {
+
+    private Refusals() {}
+
+    static void write(HttpServletResponse response, HttpStatus status, long retryAfterNanos, String message)
+            throws IOException {
+        long seconds = Math.max(1, (retryAfterNanos + TimeUnit.SECONDS.toNanos(1) - 1) / TimeUnit.SECONDS.toNanos(1));
+        response.setStatus(status.value());
+        response.setHeader(HttpHeaders.RETRY_AFTER, String.valueOf(seconds));
+        response.setContentType(MediaType.APPLICATION_JSON_VALUE);
+        response.getWriter().write("{\"error\": \"" + message + "\"}");
+    }
+}
@@ -0,0 +1,72 @@
+package com.haelin.auth;
+
+import com.google.firebase.auth.FirebaseAuth;
+import com.google.firebase.auth.FirebaseToken;
+import com.haelin.model.User;
+import com.haelin.service.UserService;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.http.HttpHeaders;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * Verifies the bearer token once per request and stores a {@link FirebasePrincipal} in the
+ * security context. Requests without a valid token continue unauthenticated; the filter chain's
+ * authorization rules decide whether that is allowed.
+ */
+public class FirebaseAuthenticationFilter extends OncePerRequestFilter {
+
+    private static final String BEARER_PREFIX = "Bearer ";
+    static final String ROLE_CLAIM = "role";
+
+    private final TokenVerifier tokenVerifier;
+    private final UserService userService;
+
+    public FirebaseAuthenticationFilter(TokenVerifier tokenVerifier, UserService userService) {
+        this.tokenVerifier = tokenVerifier;
+        this.userService = userService;
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain)
+            throws ServletException, IOException {
+        String header = request.getHeader(HttpHeaders.AUTHORIZATION);
+
+        if (header != null && header.startsWith(BEARER_PREFIX)) {
+            try {
+                FirebaseToken token = tokenVerifier.verify(header.substring(BEARER_PREFIX.length()).trim());
+                FirebasePrincipal principal = new FirebasePrincipal(token.getUid(), token.getEmail(), resolveRole(token));
+
+                SecurityContextHolder.getContext().setAuthentication(
+                        new UsernamePasswordAuthenticationToken(principal, null, principal.getAuthorities()));
+            } catch (Exception e) {
+                SecurityContextHolder.clearContext();
+            }
+        }
+
+        chain.doFilter(request, response);
+    }
+
+    // Role comes from the custom claim; accounts created before claims existed fall back to
+    // their (cached) profile once, and get the claim written for their next token
+    private String resolveRole(FirebaseToken token) throws Exception {
+        Object claim = token.getClaims().get(ROLE_CLAIM);
+        if (claim instanceof String role) {
+            return role;
+        }
+
+        User user = userService.getUser(token.getUid());
+        if (user == null || user.getRole() == null) {
+            return null;
+        }
+        FirebaseAuth.getInstance().setCustomUserClaimsAsync(token.getUid(), Map.of(ROLE_CLAIM, user.getRole().toUpperCase()));
+        return user.getRole();
+    }
+}
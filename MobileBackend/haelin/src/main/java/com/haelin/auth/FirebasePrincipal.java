@@ -0,0 +1,35 @@
+package com.haelin.auth;
+
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.core.authority.SimpleGrantedAuthority;
+
+import java.util.Collections;
+import java.util.List;
+
+// The caller of the current request, taken from a verified Firebase ID token
+public class FirebasePrincipal {
+    private final String uid;
+    private final String email;
+    private final String role;   // ADMIN or PATIENT, null if unknown
+
+    public FirebasePrincipal(String uid, String email, String role) {
+        this.uid = uid;
+        this.email = email;
+        this.role = role;
+    }
+
+    public String getUid() { return uid; }
+    public String getEmail() { return email; }
+    public String getRole() { return role; }
+
+    public boolean isAdmin() {
+        return "ADMIN".equalsIgnoreCase(role);
+    }
+
+    public List<GrantedAuthority> getAuthorities() {
+        if (role == null) {
+            return Collections.emptyList();
+        }
+        return List.of(new SimpleGrantedAuthority("ROLE_" + role.toUpperCase()));
+    }
+}
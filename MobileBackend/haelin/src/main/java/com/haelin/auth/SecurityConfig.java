@@ -0,0 +1,55 @@
+package com.haelin.auth;
+
+import com.haelin.admission.AdaptiveConcurrencyLimit;
+import com.haelin.admission.LoadShedFilter;
+import com.haelin.admission.RateLimitFilter;
+import com.haelin.admission.RateLimiter;
+import com.haelin.service.UserService;
+import jakarta.servlet.DispatcherType;
+import org.springframework.boot.actuate.autoconfigure.security.servlet.EndpointRequest;
+import org.springframework.boot.actuate.health.HealthEndpoint;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.security.config.Customizer;
+import org.springframework.security.config.annotation.web.builders.HttpSecurity;
+import org.springframework.security.config.http.SessionCreationPolicy;
+import org.springframework.security.web.SecurityFilterChain;
+import org.springframework.security.web.authentication.HttpStatusEntryPoint;
+import org.springframework.security.web.authentication.UsernamePasswordAuthenticationFilter;
+
+@Configuration
+public class SecurityConfig {
+
+    @Bean
+    public SecurityFilterChain securityFilterChain(HttpSecurity http, TokenVerifier tokenVerifier,
+                                                   UserService userService, RateLimiter rateLimiter,
+                                                   AdaptiveConcurrencyLimit concurrencyLimit) throws Exception {
+        http
+                .csrf(csrf -> csrf.disable())
+                .cors(Customizer.withDefaults())
+                .httpBasic(basic -> basic.disable())
+                .formLogin(form -> form.disable())
+                .sessionManagement(session -> session.sessionCreationPolicy(SessionCreationPolicy.STATELESS))
+                .exceptionHandling(ex -> ex.authenticationEntryPoint(new HttpStatusEntryPoint(HttpStatus.UNAUTHORIZED)))
+                .addFilterBefore(new FirebaseAuthenticationFilter(tokenVerifier, userService),
+                        UsernamePasswordAuthenticationFilter.class)
+                // Admission control: per-caller rates (needs the uid), then the adaptive concurrency limit
+                .addFilterAfter(new RateLimitFilter(rateLimiter), FirebaseAuthenticationFilter.class)
+                .addFilterAfter(new LoadShedFilter(concurrencyLimit), RateLimitFilter.class)
+                .authorizeHttpRequests(auth -> auth
+                        // Async (Mono, streaming) and error dispatches were authorized on the original request
+                        .dispatcherTypeMatchers(DispatcherType.ASYNC, DispatcherType.ERROR).permitAll()
+                        // Metrics and Prometheus carry per-method latency, error and shed/circuit state; health stays open
+                        .requestMatchers(EndpointRequest.to(HealthEndpoint.class)).permitAll()
+                        .requestMatchers(EndpointRequest.toAnyEndpoint()).hasRole("ADMIN")
+                        .requestMatchers("/user/all", "/user/delete/**", "/medrec/import/**").hasRole("ADMIN")
+                        // Full listings and their NDJSON/CSV exports are for the epidemiology teams only
+                        .requestMatchers(HttpMethod.GET, "/medrec/all", "/prediction/all", "/notification/all").hasRole("ADMIN")
+                        .requestMatchers("/user/update/**", "/medrec/add", "/medrec/user", "/medrec/search",
+                                "/notification/add", "/notification/my", "/notification/stream").authenticated()
+                        .anyRequest().permitAll());
+        return http.build();
+    }
+}
@@ -0,0 +1,92 @@
+package com.haelin.auth;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import com.google.firebase.auth.FirebaseAuth;
+import com.google.firebase.auth.FirebaseAuthException;
+import com.google.firebase.auth.FirebaseToken;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Verifies Firebase ID tokens once and remembers the decoded result until the token expires.
+ *
+ * Entries are keyed by a SHA-256 of the token so raw bearer tokens are never held in memory
+ * longer than the request that carried them.
+ */
+@Component
+public class TokenVerifier {
+
+    private final Cache<String, FirebaseToken> tokens;
+
+    @Autowired
+    public TokenVerifier(MeterRegistry meterRegistry,
+                         @Value("${haelin.auth.token-cache-size:10000}") long maxTokens) {
+        this.tokens = Caffeine.newBuilder()
+                .maximumSize(maxTokens)
+                .expireAfter(new Expiry<String, FirebaseToken>() {
+                    @Override
+                    public long expireAfterCreate(String key, FirebaseToken token, long currentTime) {
+                        return nanosUntilExpiry(token);
+                    }
+
+                    @Override
+                    public long expireAfterUpdate(String key, FirebaseToken token, long currentTime, long currentDuration) {
+                        return nanosUntilExpiry(token);
+                    }
+
+                    @Override
+                    public long expireAfterRead(String key, FirebaseToken token, long currentTime, long currentDuration) {
+                        return currentDuration;
+                    }
+                })
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, tokens, "firebaseTokens");
+    }
+
+    public FirebaseToken verify(String idToken) throws FirebaseAuthException {
+        String key = hash(idToken);
+        FirebaseToken cached = tokens.getIfPresent(key);
+        if (cached != null) {
+            return cached;
+        }
+
+        FirebaseToken decoded = decode(idToken);
+        tokens.put(key, decoded);
+        return decoded;
+    }
+
+    // The actual check against Firebase; overridable so benchmarks can stand in for it
+    protected FirebaseToken decode(String idToken) throws FirebaseAuthException {
+        return FirebaseAuth.getInstance().verifyIdToken(idToken);
+    }
+
+    private static long nanosUntilExpiry(FirebaseToken token) {
+        Object exp = token.getClaims().get("exp");
+        if (!(exp instanceof Number)) {
+            return 0;
+        }
+        long remainingMs = ((Number) exp).longValue() * 1000 - System.currentTimeMillis();
+        return TimeUnit.MILLISECONDS.toNanos(Math.max(remainingMs, 0));
+    }
+
+    private static String hash(String idToken) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            return HexFormat.of().formatHex(digest.digest(idToken.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+}
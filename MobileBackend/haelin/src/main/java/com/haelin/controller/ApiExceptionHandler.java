@@ -0,0 +1,19 @@
+package com.haelin.controller;
+
+import com.haelin.repository.InvalidPageTokenException;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.ExceptionHandler;
+import org.springframework.web.bind.annotation.RestControllerAdvice;
+
+import java.util.Map;
+
+// Client mistakes raised below the controllers, answered in the same {"error": ...} shape
+@RestControllerAdvice
+public class ApiExceptionHandler {
+
+    @ExceptionHandler(InvalidPageTokenException.class)
+    public ResponseEntity<Map<String, String>> invalidPageToken(InvalidPageTokenException e) {
+        return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(Map.of("error", e.getMessage()));
+    }
+}
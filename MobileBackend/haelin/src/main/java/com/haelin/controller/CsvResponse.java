@@ -0,0 +1,88 @@
+package com.haelin.controller;
+
+import org.springframework.http.ContentDisposition;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.function.Function;
+import java.util.zip.GZIPOutputStream;
+
+// Streams documents as an RFC 4180 CSV download, optionally gzipped (compress=gzip).
+// Rows are written as each Firestore page is read, and the next page is only fetched once the
+// client has taken the previous one, so memory stays flat however large the export is.
+final class CsvResponse {
+
+    static final MediaType CSV = MediaType.parseMediaType("text/csv;charset=UTF-8");
+    static final MediaType GZIP = MediaType.parseMediaType("application/gzip");
+
+    private static final int BUFFER_BYTES = 64 * 1024;
+
+    private CsvResponse() {}
+
+    static <T> ResponseEntity<StreamingResponseBody> of(String name, List<String> header, Function<T, Object[]> row,
+                                                        String compress, NdjsonResponse.Source<T> source) {
+        boolean gzip = "gzip".equalsIgnoreCase(compress);
+
+        StreamingResponseBody body = out -> {
+            OutputStream target = gzip ? new GZIPOutputStream(out, BUFFER_BYTES) : out;
+            Writer writer = new BufferedWriter(new OutputStreamWriter(target, StandardCharsets.UTF_8), BUFFER_BYTES);
+            try {
+                writeRow(writer, header.toArray());
+                source.forEach(item -> writeRow(writer, row.apply(item)));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Export interrupted", e);
+            } catch (ExecutionException e) {
+                throw new IOException("Export failed: " + e.getMessage(), e);
+            }
+            writer.flush();
+            if (gzip) {
+                ((GZIPOutputStream) target).finish();
+            }
+        };
+
+        String filename = name + (gzip ? ".csv.gz" : ".csv");
+        return ResponseEntity.ok()
+                .contentType(gzip ? GZIP : CSV)
+                .header(HttpHeaders.CONTENT_DISPOSITION, ContentDisposition.attachment().filename(filename).build().toString())
+                .body(body);
+    }
+
+    private static void writeRow(Writer writer, Object[] values) throws IOException {
+        for (int i = 0; i < values.length; i++) {
+            if (i > 0) writer.write(',');
+            writeField(writer, values[i]);
+        }
+        writer.write("\r\n");
+    }
+
+    // Quoted only when needed; embedded quotes are doubled
+    private static void writeField(Writer writer, Object value) throws IOException {
+        if (value == null) {
+            return;
+        }
+        String text = value.toString();
+        boolean quote = false;
+        for (int i = 0; i < text.length() && !quote; i++) {
+            char c = text.charAt(i);
+            quote = c == ',' || c == '"' || c == '\n' || c == '\r';
+        }
+        if (!quote) {
+            writer.write(text);
+            return;
+        }
+        writer.write('"');
+        writer.write(text.replace("\"", "\"\""));
+        writer.write('"');
+    }
+}
@@ -1,9 +1,12 @@
 package com.haelin.controller;
 
 import com.haelin.service.DashboardService;
+import com.haelin.service.OutbreakService;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.format.annotation.DateTimeFormat;
 import org.springframework.web.bind.annotation.*;
-import java.util.HashMap;
+
+import java.time.LocalDate;
 import java.util.Map;
 import java.util.concurrent.ExecutionException;
 
@@ -14,13 +17,21 @@ public class DashboardController {
     @Autowired
     private DashboardService dashboardService;
 
+    @Autowired
+    private OutbreakService outbreakService;
+
     @GetMapping("/stats")
     public Map<String, Object> getDashboardStats() throws ExecutionException, InterruptedException {
-        Map<String, Object> stats = new HashMap<>();
-        stats.put("totalUsers", dashboardService.getUserCount());
-        stats.put("totalCases", dashboardService.getTotalCases());
-        stats.put("dengueCases", dashboardService.getDengueCases());
-        stats.put("chikungunyaCases", dashboardService.getChikungunyaCases());
-        return stats;
+        return dashboardService.getStats();
+    }
+
+    // Daily case counts per city and diagnosis over an inclusive yyyy-MM-dd range (default: last 30 days)
+    @GetMapping("/outbreaks")
+    public Map<String, Object> getOutbreaks(
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate from,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate to,
+            @RequestParam(required = false) String city,
+            @RequestParam(required = false) String diagnosis) {
+        return outbreakService.getOutbreaks(from, to, city, diagnosis);
     }
 }
@@ -1,9 +1,12 @@
 package com.haelin.controller;
 
+import com.haelin.http.DownstreamGuard;
 import com.haelin.model.Hospital;
 import com.haelin.service.MapService;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import reactor.core.publisher.Mono;
 
 import java.util.List;
 
@@ -18,12 +21,15 @@ public class MapController {
     }
 
     @GetMapping("/hospitals")
-    public ResponseEntity<List<Hospital>> getNearbyHospitals(
+    public Mono<ResponseEntity<List<Hospital>>> getNearbyHospitals(
             @RequestParam double lat,
             @RequestParam double lon,
             @RequestParam(defaultValue = "5000") int radius) {
 
-        List<Hospital> result = mapService.getNearbyHospitals(lat, lon, radius);
-        return ResponseEntity.ok(result);
+        // Overpass timed out or is being refused and nothing for this area is cached
+        return mapService.getNearbyHospitals(lat, lon, radius)
+                .map(ResponseEntity::ok)
+                .onErrorResume(DownstreamGuard::isUnavailable,
+                        e -> Mono.just(ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).build()));
     }
 }
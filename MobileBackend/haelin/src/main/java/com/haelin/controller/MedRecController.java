@@ -1,14 +1,20 @@
 package com.haelin.controller;
 
 
-import com.google.firebase.auth.FirebaseAuth;
-import com.google.firebase.auth.FirebaseAuthException;
-import com.google.firebase.auth.FirebaseToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.haelin.auth.FirebasePrincipal;
+import com.haelin.model.ImportProgress;
 import com.haelin.model.MedRec;
+import com.haelin.service.MedRecImportService;
 import com.haelin.service.MedRecService;
+import jakarta.servlet.http.HttpServletRequest;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.ResponseEntity;
+import org.springframework.security.core.annotation.AuthenticationPrincipal;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import java.io.IOException;
 import java.util.List;
 import java.util.concurrent.ExecutionException;
 
@@ -19,24 +25,19 @@ public class MedRecController {
     @Autowired
     private MedRecService medRecService;
 
+    @Autowired
+    private MedRecImportService medRecImportService;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    // Caller is authenticated by FirebaseAuthenticationFilter before this runs
     @PostMapping("/add")
-    public String createRecord(@RequestHeader("Authorization") String authHeader,
+    public String createRecord(@AuthenticationPrincipal FirebasePrincipal principal,
                                @RequestBody MedRec medRec)
             throws ExecutionException, InterruptedException {
-
-        // Extract and verify Firebase ID token
-        String idToken = authHeader.replace("Bearer ", "");
-
-        try {
-            FirebaseToken decodedToken = FirebaseAuth.getInstance().verifyIdToken(idToken);
-            String uid = decodedToken.getUid();      // Extract UID
-            medRec.setUserId(uid);                   // Assign UID as userId
-
-            return medRecService.createRecord(medRec);
-
-        } catch (Exception e) {
-            return "Invalid or expired Firebase token: " + e.getMessage();
-        }
+        medRec.setUserId(principal.getUid());        // Assign UID as userId
+        return medRecService.createRecord(medRec);
     }
 
     @PutMapping("/update/{id}")
@@ -44,20 +45,71 @@ public class MedRecController {
             throws ExecutionException, InterruptedException {
         return medRecService.updateRecord(id, medRec);
     }
+
+    // Full list by default; pass limit/pageToken to page through the collection
     @GetMapping("/all")
-    public List<MedRec> getAllRecords() throws ExecutionException, InterruptedException {
-        return medRecService.getAllRecords();
+    public ResponseEntity<?> getAllRecords(@RequestParam(required = false) Integer limit,
+                                           @RequestParam(required = false) String pageToken)
+            throws ExecutionException, InterruptedException {
+        if (limit == null && pageToken == null) {
+            return ResponseEntity.ok(medRecService.getAllRecords());
+        }
+        return ResponseEntity.ok(medRecService.getRecordsPage(limit, pageToken));
     }
 
-    //Get only records belonging to the logged-in user
+    // Newline-delimited JSON export that streams records as they are read
+    @GetMapping(value = "/all", params = "format=ndjson")
+    public ResponseEntity<StreamingResponseBody> streamAllRecords() {
+        return NdjsonResponse.of(objectMapper, medRecService::forEachRecord);
+    }
+
+    // CSV export streamed page by page; add compress=gzip for a .csv.gz download
+    @GetMapping(value = "/all", params = "format=csv")
+    public ResponseEntity<StreamingResponseBody> exportCsv(@RequestParam(required = false) String compress) {
+        return CsvResponse.of("medical_records",
+                List.of("medID", "userId", "diagnosis", "riskStatus", "date", "symptoms", "predScore"),
+                (MedRec r) -> new Object[]{r.getMedID(), r.getUserId(), r.getDiagnosis(), r.getRiskStatus(),
+                        r.getDate(), r.getSymptoms(), r.getPredScore()},
+                compress, medRecService::forEachRecord);
+    }
+
+    // The logged-in user's most recent records, newest first (default 50, at most 500)
     @GetMapping("/user")
-    public List<MedRec> getRecordsByUser(@RequestHeader("Authorization") String authHeader)
-            throws ExecutionException, InterruptedException, FirebaseAuthException {
-        String idToken = authHeader.replace("Bearer ", "");
-        FirebaseToken decodedToken = FirebaseAuth.getInstance().verifyIdToken(idToken);
-        String uid = decodedToken.getUid();
+    public List<MedRec> getRecordsByUser(@AuthenticationPrincipal FirebasePrincipal principal,
+                                         @RequestParam(required = false) Integer limit)
+            throws ExecutionException, InterruptedException {
+        return medRecService.getRecordsByUserId(principal.getUid(), limit);
+    }
 
-        return medRecService.getRecordsByUserId(uid);
+    // Bulk import of historical records from an NDJSON or CSV request body; returns the final progress.
+    // Pass your own jobId to follow progress through /import/{jobId} while the upload runs.
+    @PostMapping(value = "/import", consumes = {"application/x-ndjson", "text/csv"})
+    public ImportProgress importRecords(@RequestParam(required = false) String jobId, HttpServletRequest request)
+            throws IOException {
+        boolean csv = request.getContentType() != null && request.getContentType().startsWith("text/csv");
+        return medRecImportService.importRecords(jobId, request.getInputStream(), csv);
+    }
+
+    // Progress of a running (or recently finished) import
+    @GetMapping("/import/{jobId}")
+    public ResponseEntity<ImportProgress> getImportProgress(@PathVariable String jobId) {
+        ImportProgress progress = medRecImportService.getProgress(jobId);
+        return progress == null ? ResponseEntity.notFound().build() : ResponseEntity.ok(progress);
+    }
+
+    // Filter by any of userId, diagnosis and an inclusive yyyy-MM-dd date range.
+    // Admins search every record; anyone else only their own, whatever userId they pass.
+    @GetMapping("/search")
+    public List<MedRec> searchRecords(@AuthenticationPrincipal FirebasePrincipal principal,
+                                      @RequestParam(required = false) String userId,
+                                      @RequestParam(required = false) String diagnosis,
+                                      @RequestParam(required = false) String from,
+                                      @RequestParam(required = false) String to)
+            throws ExecutionException, InterruptedException {
+        if (!principal.isAdmin()) {
+            userId = principal.getUid();
+        }
+        return medRecService.searchRecords(userId, diagnosis, from, to);
     }
 
     @GetMapping("{id}")
@@ -66,7 +118,7 @@ public class MedRecController {
     }
 
     @DeleteMapping("delete/{id}")
-    public String deleteRecord(@PathVariable String id) {
+    public String deleteRecord(@PathVariable String id) throws ExecutionException, InterruptedException {
         return medRecService.deleteRecord(id);
     }
 }
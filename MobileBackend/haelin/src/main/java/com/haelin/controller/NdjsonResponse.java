@@ -0,0 +1,42 @@
+package com.haelin.controller;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.haelin.repository.FirestorePages;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.io.IOException;
+import java.util.concurrent.ExecutionException;
+
+// Streams documents as newline-delimited JSON, one line per document, so exports never
+// hold the whole collection in memory
+final class NdjsonResponse {
+
+    static final MediaType NDJSON = MediaType.parseMediaType("application/x-ndjson");
+
+    @FunctionalInterface
+    interface Source<T> {
+        void forEach(FirestorePages.DocumentHandler<T> handler)
+                throws ExecutionException, InterruptedException, IOException;
+    }
+
+    private NdjsonResponse() {}
+
+    static <T> ResponseEntity<StreamingResponseBody> of(ObjectMapper objectMapper, Source<T> source) {
+        StreamingResponseBody body = out -> {
+            try {
+                source.forEach(item -> {
+                    out.write(objectMapper.writeValueAsBytes(item));
+                    out.write('\n');
+                });
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Export interrupted", e);
+            } catch (ExecutionException e) {
+                throw new IOException("Export failed: " + e.getMessage(), e);
+            }
+        };
+        return ResponseEntity.ok().contentType(NDJSON).body(body);
+    }
+}
@@ -1,13 +1,20 @@
 package com.haelin.controller;
 
-import com.google.firebase.auth.FirebaseAuth;
-import com.google.firebase.auth.FirebaseAuthException;
-import com.google.firebase.auth.FirebaseToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.haelin.auth.FirebasePrincipal;
 import com.haelin.model.Notification;
 import com.haelin.service.NotifiService;
+import com.haelin.service.NotificationHub;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.http.codec.ServerSentEvent;
+import org.springframework.security.core.annotation.AuthenticationPrincipal;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+import reactor.core.publisher.Flux;
 
+import java.io.IOException;
 import java.util.List;
 import java.util.concurrent.ExecutionException;
 
@@ -18,39 +25,51 @@ public class NotifiController {
     @Autowired
     private NotifiService notificationService;
 
+    @Autowired
+    private NotificationHub notificationHub;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    // Caller is authenticated by FirebaseAuthenticationFilter before this runs
     @PostMapping("/add")
-    public String createNotification(@RequestHeader("Authorization") String authHeader,
+    public String createNotification(@AuthenticationPrincipal FirebasePrincipal principal,
                                      @RequestBody Notification notification)
+            throws ExecutionException, InterruptedException, IOException {
+        notification.setUserId(principal.getUid()); // link to Firebase user
+        return notificationService.saveNotification(notification);
+    }
+
+    // Full list by default; pass limit/pageToken to page through the collection
+    @GetMapping("/all")
+    public ResponseEntity<?> getAllNotifications(@RequestParam(required = false) Integer limit,
+                                                 @RequestParam(required = false) String pageToken)
             throws ExecutionException, InterruptedException {
-        try {
-            String token = authHeader.replace("Bearer ", "");
-            FirebaseToken decodedToken = FirebaseAuth.getInstance().verifyIdToken(token);
-            String userId = decodedToken.getUid();
-            notification.setUserId(userId); // link to Firebase user
-
-            return notificationService.saveNotification(notification);
-        } catch (FirebaseAuthException e) {
-            return "Invalid or expired token: " + e.getMessage();
+        if (limit == null && pageToken == null) {
+            return ResponseEntity.ok(notificationService.getAllNotifications());
         }
+        return ResponseEntity.ok(notificationService.getNotificationsPage(limit, pageToken));
     }
 
-    @GetMapping("/all")
-    public List<Notification> getAllNotifications() throws ExecutionException, InterruptedException {
-        return notificationService.getAllNotifications();
+    // Newline-delimited JSON export that streams notifications as they are read
+    @GetMapping(value = "/all", params = "format=ndjson")
+    public ResponseEntity<StreamingResponseBody> streamAllNotifications() {
+        return NdjsonResponse.of(objectMapper, notificationService::forEachNotification);
     }
 
-    // Get notifications for logged-in user
+    // The logged-in user's most recent notifications, newest first (default 50, at most 500)
     @GetMapping("/my")
-    public List<Notification> getUserNotifications(@RequestHeader("Authorization") String authHeader)
+    public List<Notification> getUserNotifications(@AuthenticationPrincipal FirebasePrincipal principal,
+                                                   @RequestParam(required = false) Integer limit)
             throws ExecutionException, InterruptedException {
-        try {
-            String token = authHeader.replace("Bearer ", "");
-            FirebaseToken decodedToken = FirebaseAuth.getInstance().verifyIdToken(token);
-            String userId = decodedToken.getUid();
-            return notificationService.getNotificationsByUser(userId);
-        } catch (FirebaseAuthException e) {
-            throw new RuntimeException("Invalid token: " + e.getMessage(), e);
-        }
+        return notificationService.getNotificationsByUser(principal.getUid(), limit);
+    }
+
+    // Server-Sent Events stream of the logged-in user's new notifications, replacing /my polling
+    @GetMapping(value = "/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public Flux<ServerSentEvent<Notification>> streamUserNotifications(
+            @AuthenticationPrincipal FirebasePrincipal principal) {
+        return notificationHub.subscribe(principal.getUid());
     }
 
     @DeleteMapping("delete/{docId}")
@@ -1,10 +1,14 @@
 package com.haelin.controller;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.haelin.model.Prediction;
 import com.haelin.service.PredService;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import java.io.IOException;
 import java.util.List;
 import java.util.concurrent.ExecutionException;
 
@@ -13,22 +17,44 @@ import java.util.concurrent.ExecutionException;
 @CrossOrigin
 public class PredController {
     private final PredService predictionService;
+    private final ObjectMapper objectMapper;
 
     @Autowired
-    public PredController(PredService predictionService) {
+    public PredController(PredService predictionService, ObjectMapper objectMapper) {
         this.predictionService = predictionService;
+        this.objectMapper = objectMapper;
     }
 
     // Endpoint for FastAPI to POST prediction result
     @PostMapping("/add")
-    public String addPrediction(@RequestBody Prediction prediction) throws ExecutionException, InterruptedException {
+    public String addPrediction(@RequestBody Prediction prediction)
+            throws ExecutionException, InterruptedException, IOException {
         // Note: predID will be generated here
         return predictionService.createPrediction(prediction);
     }
 
-    // Optional: view all predictions
+    // Optional: view all predictions, or page through them with limit/pageToken
     @GetMapping("/all")
-    public List<Prediction> getAll() throws ExecutionException, InterruptedException {
-        return predictionService.getAllPredictions();
+    public ResponseEntity<?> getAll(@RequestParam(required = false) Integer limit,
+                                    @RequestParam(required = false) String pageToken)
+            throws ExecutionException, InterruptedException {
+        if (limit == null && pageToken == null) {
+            return ResponseEntity.ok(predictionService.getAllPredictions());
+        }
+        return ResponseEntity.ok(predictionService.getPredictionsPage(limit, pageToken));
+    }
+
+    // Newline-delimited JSON export that streams predictions as they are read
+    @GetMapping(value = "/all", params = "format=ndjson")
+    public ResponseEntity<StreamingResponseBody> streamAll() {
+        return NdjsonResponse.of(objectMapper, predictionService::forEachPrediction);
+    }
+
+    // CSV export streamed page by page; add compress=gzip for a .csv.gz download
+    @GetMapping(value = "/all", params = "format=csv")
+    public ResponseEntity<StreamingResponseBody> exportCsv(@RequestParam(required = false) String compress) {
+        return CsvResponse.of("predictions", List.of("predID", "predScore", "predDate", "predDisease"),
+                (Prediction p) -> new Object[]{p.getPredID(), p.getPredScore(), p.getPredDate(), p.getPredDisease()},
+                compress, predictionService::forEachPrediction);
     }
 }
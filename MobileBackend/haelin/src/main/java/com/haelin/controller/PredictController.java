@@ -1,46 +1,48 @@
 package com.haelin.controller;
 
+import com.haelin.http.DownstreamGuard;
+import com.haelin.service.PredictService;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RestController;
-import org.springframework.web.client.RestTemplate;
+import reactor.core.publisher.Mono;
 
 import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
 
 @RestController
 @RequestMapping("/predict")
 public class PredictController {
 
+    private final PredictService predictService;
+
+    @Autowired
+    public PredictController(PredictService predictService) {
+        this.predictService = predictService;
+    }
+
     @PostMapping("/dengue")
-    public ResponseEntity<String> predictDengue(@RequestBody Map<String, Object> payload) {
-        try {
-            String fastApiUrl = "http://127.0.0.1:8001/predict_dengue";
-            RestTemplate restTemplate = new RestTemplate();
-
-            ResponseEntity<String> response = restTemplate.postForEntity(fastApiUrl, payload, String.class);
-            return ResponseEntity.ok(response.getBody());
-
-        } catch (Exception e) {
-            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
-                    .body("{\"error\": \"" + e.getMessage() + "\"}");
-        }
+    public Mono<ResponseEntity<String>> predictDengue(@RequestBody Map<String, Object> payload) {
+        return toResponse(predictService.predictDengue(payload));
     }
 
     @PostMapping("/chikun")
-    public ResponseEntity<String> predictChikun(@RequestBody Map<String, Object> payload) {
-        try {
-            String fastApiUrl = "http://127.0.0.1:8085/predict_chikun";
-            RestTemplate restTemplate = new RestTemplate();
-
-            ResponseEntity<String> response = restTemplate.postForEntity(fastApiUrl, payload, String.class);
-            return ResponseEntity.ok(response.getBody());
-
-        } catch (Exception e) {
-            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
-                    .body("{\"error\": \"" + e.getMessage() + "\"}");
-        }
+    public Mono<ResponseEntity<String>> predictChikun(@RequestBody Map<String, Object> payload) {
+        return toResponse(predictService.predictChikun(payload));
+    }
+
+    // 503 when the predictor is timing out or refused, or our own batch queue is full
+    private Mono<ResponseEntity<String>> toResponse(Mono<String> prediction) {
+        return prediction
+                .map(ResponseEntity::ok)
+                .onErrorResume(e -> DownstreamGuard.isUnavailable(e) || e instanceof RejectedExecutionException,
+                        e -> Mono.just(ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                                .body("{\"error\": \"Prediction service unavailable, try again shortly\"}")))
+                .onErrorResume(e -> Mono.just(ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                        .body("{\"error\": \"" + e.getMessage() + "\"}")));
     }
 }
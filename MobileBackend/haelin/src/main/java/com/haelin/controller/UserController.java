@@ -1,19 +1,20 @@
 package com.haelin.controller;
 
-import com.google.cloud.firestore.DocumentSnapshot;
-import com.google.cloud.firestore.Firestore;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.haelin.auth.FirebasePrincipal;
 import com.haelin.model.User;
 import com.haelin.model.UserLoginRequest;
 import com.haelin.service.UserService;
-import com.google.firebase.cloud.FirestoreClient;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
+import org.springframework.security.core.annotation.AuthenticationPrincipal;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
-import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ExecutionException;
 
@@ -22,9 +23,14 @@ import java.util.concurrent.ExecutionException;
 @CrossOrigin(origins = {"http://127.0.0.1:5580", "http://localhost:5580"})
 public class UserController {
 
+    private static final Logger log = LoggerFactory.getLogger(UserController.class);
+
     @Autowired
     private UserService userService;
 
+    @Autowired
+    private ObjectMapper objectMapper;
+
     // =================== MOBILE SIGNUP (Patient) ===================
     @PostMapping("/signup/mobile")
     public String signupMobile(@RequestBody User user) throws Exception {
@@ -112,43 +118,39 @@ public class UserController {
         }
     }
 
-    // =================== GET ALL USERS (ADMIN ONLY) ===================
+    // =================== GET ALL USERS (ADMIN ONLY, enforced in SecurityConfig) ===================
+    // Full list by default; pass limit/pageToken to page through users
     @GetMapping("/all")
-    public List<User> getAllUsers(@RequestHeader("Authorization") String authHeader) throws Exception {
-        User currentUser = userService.verifyToken(authHeader.replace("Bearer ", ""));
-        if (!"ADMIN".equalsIgnoreCase(currentUser.getRole())) {
-            throw new RuntimeException("Access denied: Admins only");
+    public ResponseEntity<?> getAllUsers(@RequestParam(required = false) Integer limit,
+                                         @RequestParam(required = false) String pageToken) throws Exception {
+        if (limit == null && pageToken == null) {
+            return ResponseEntity.ok(userService.getAllUsers());
         }
+        return ResponseEntity.ok(userService.getUsersPage(limit, pageToken));
+    }
 
-        Firestore db = FirestoreClient.getFirestore();
-        List<User> userList = new ArrayList<>();
-        for (DocumentSnapshot doc : db.collection("users").get().get().getDocuments()) {
-            userList.add(doc.toObject(User.class));
-        }
-        return userList;
+    // Newline-delimited JSON export that streams users as they are read
+    @GetMapping(value = "/all", params = "format=ndjson")
+    public ResponseEntity<StreamingResponseBody> streamAllUsers() {
+        return NdjsonResponse.of(objectMapper, userService::forEachUser);
     }
 
     @GetMapping("/{userId}")
     public ResponseEntity<?> getUserById(@PathVariable String userId) {
         try {
-            System.out.println("Fetching user with ID: " + userId);
-
             User user = userService.getUser(userId);
 
             if (user != null) {
-                System.out.println("User found: " + user.getName());
                 return ResponseEntity.ok(user);
             } else {
-                System.out.println("User not found with ID: " + userId);
+                log.debug("User not found with ID: {}", userId);
                 return ResponseEntity.status(404).body("User not found with ID: " + userId);
             }
         } catch (ExecutionException | InterruptedException e) {
-            System.out.println("Error fetching user: " + e.getMessage());
-            e.printStackTrace();
+            log.warn("Error fetching user {}", userId, e);
             return ResponseEntity.status(500).body("Error fetching user: " + e.getMessage());
         } catch (Exception e) {
-            System.out.println("Unexpected error: " + e.getMessage());
-            e.printStackTrace();
+            log.error("Unexpected error fetching user {}", userId, e);
             return ResponseEntity.status(500).body("Unexpected error: " + e.getMessage());
         }
     }
@@ -156,12 +158,10 @@ public class UserController {
     // =================== UPDATE USER ===================
     @PutMapping("/update/{uid}")
     public ResponseEntity<?> updateUser(@PathVariable String uid, @RequestBody User user,
-                                        @RequestHeader("Authorization") String authHeader) {
+                                        @AuthenticationPrincipal FirebasePrincipal principal) {
         try {
-            User currentUser = userService.verifyToken(authHeader.replace("Bearer ", ""));
-
             // Only Admin or the same user can update
-            if (!"ADMIN".equalsIgnoreCase(currentUser.getRole()) && !currentUser.getUserId().equals(uid)) {
+            if (!principal.isAdmin() && !principal.getUid().equals(uid)) {
                 return ResponseEntity.status(HttpStatus.FORBIDDEN)
                         .body("Access denied: You cannot update this user");
             }
@@ -170,30 +170,21 @@ public class UserController {
             return ResponseEntity.ok(result);
 
         } catch (Exception e) {
-            return ResponseEntity.status(HttpStatus.UNAUTHORIZED)
-                    .body("Token verification failed: " + e.getMessage());
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                    .body("Update failed: " + e.getMessage());
         }
     }
 
-    // =================== DELETE USER ===================
+    // =================== DELETE USER (ADMIN ONLY, enforced in SecurityConfig) ===================
     @DeleteMapping("/delete/{uid}")
-    public ResponseEntity<?> deleteUser(@PathVariable String uid,
-                                        @RequestHeader("Authorization") String authHeader) {
+    public ResponseEntity<?> deleteUser(@PathVariable String uid) {
         try {
-            User currentUser = userService.verifyToken(authHeader.replace("Bearer ", ""));
-
-            // Only Admin can delete
-            if (!"ADMIN".equalsIgnoreCase(currentUser.getRole())) {
-                return ResponseEntity.status(HttpStatus.FORBIDDEN)
-                        .body("Access denied: Admins only");
-            }
-
             String result = userService.deleteUser(uid);
             return ResponseEntity.ok(result);
 
         } catch (Exception e) {
-            return ResponseEntity.status(HttpStatus.UNAUTHORIZED)
-                    .body("Token verification failed: " + e.getMessage());
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                    .body("Delete failed: " + e.getMessage());
         }
     }
 }
\ No newline at end of file
@@ -5,6 +5,9 @@ import com.google.cloud.firestore.Firestore;
 import com.google.firebase.FirebaseApp;
 import com.google.firebase.FirebaseOptions;
 import com.google.firebase.cloud.FirestoreClient;
+import io.micrometer.tracing.Tracer;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.core.io.ClassPathResource;
@@ -36,4 +39,10 @@ public class FirebaseConfig {
         return FirestoreClient.getFirestore();
     }
 
+    // Firestore calls become spans of the current trace (see FirestoreMetrics)
+    @Autowired
+    public void traceFirestoreCalls(ObjectProvider<Tracer> tracer) {
+        tracer.ifAvailable(FirestoreMetrics::useTracer);
+    }
+
 }
@@ -0,0 +1,147 @@
+package com.haelin.firebase;
+
+import com.google.api.core.ApiFuture;
+import com.google.api.core.ApiFutureCallback;
+import com.google.api.core.ApiFutures;
+import com.google.api.gax.rpc.ApiException;
+import com.google.cloud.firestore.AggregateQuerySnapshot;
+import com.google.cloud.firestore.DocumentSnapshot;
+import com.google.cloud.firestore.QuerySnapshot;
+import com.google.cloud.firestore.WriteResult;
+import com.google.common.util.concurrent.MoreExecutors;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.tracing.Span;
+import io.micrometer.tracing.Tracer;
+
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Latency, errors and document counts for Firestore calls, tagged by the service method that made them.
+ * Each call is also a client span, a child of whatever span is current when the call is made.
+ *
+ *   haelin.firestore.calls              timer (with histogram)   method, collection, outcome
+ *   haelin.firestore.errors             counter                  method, collection, status
+ *   haelin.firestore.documents.read     counter                  method, collection
+ *   haelin.firestore.documents.written  counter                  method, collection
+ *
+ * Reads are counted the way Firestore bills them: one per document returned, one for an empty
+ * query, one per 1000 index entries for a count() aggregation, and one per changed document
+ * delivered to a snapshot listener.
+ *
+ * Meters go to Micrometer's global registry, which Spring Boot binds to the application's
+ * registries (Prometheus included). Call sites that get Firestore from FirestoreClient therefore
+ * need no extra wiring. The tracer is handed over once at startup by FirebaseConfig.
+ */
+public final class FirestoreMetrics {
+
+    private static volatile Tracer tracer = Tracer.NOOP;
+
+    private FirestoreMetrics() {}
+
+    public static void useTracer(Tracer tracer) {
+        FirestoreMetrics.tracer = tracer;
+    }
+
+    // ApiFuture.get(), recorded
+    public static <T> T get(String method, String collection, ApiFuture<T> future)
+            throws ExecutionException, InterruptedException {
+        return observe(method, collection, future).get();
+    }
+
+    // Records the call whenever it completes; for callers that stay asynchronous
+    public static <T> ApiFuture<T> observe(String method, String collection, ApiFuture<T> future) {
+        long start = System.nanoTime();
+        Span span = tracer.spanBuilder()
+                .name(method)
+                .kind(Span.Kind.CLIENT)
+                .remoteServiceName("firestore")
+                .tag("db.system", "firestore")
+                .tag("db.collection.name", collection)
+                .start();
+        ApiFutures.addCallback(future, new ApiFutureCallback<T>() {
+            @Override
+            public void onSuccess(T result) {
+                timer(method, collection, "success").record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+                countDocuments(method, collection, result);
+                span.end();
+            }
+
+            @Override
+            public void onFailure(Throwable t) {
+                timer(method, collection, "error").record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+                errors(method, collection, t).increment();
+                span.error(t).end();
+            }
+        }, MoreExecutors.directExecutor());
+        return future;
+    }
+
+    // For snapshot listeners: every added, modified or removed document is a billed read
+    public static void listenerEvent(String method, String collection, QuerySnapshot snapshot, Throwable error) {
+        if (error != null) {
+            errors(method, collection, error).increment();
+        } else if (snapshot != null && !snapshot.getDocumentChanges().isEmpty()) {
+            documentsRead(method, collection).increment(snapshot.getDocumentChanges().size());
+        }
+    }
+
+    private static Timer timer(String method, String collection, String outcome) {
+        return Timer.builder("haelin.firestore.calls")
+                .tag("method", method)
+                .tag("collection", collection)
+                .tag("outcome", outcome)
+                .publishPercentileHistogram()
+                .register(Metrics.globalRegistry);
+    }
+
+    private static void countDocuments(String method, String collection, Object result) {
+        long read = 0;
+        long written = 0;
+        if (result instanceof QuerySnapshot query) {
+            read = Math.max(1, query.size());
+        } else if (result instanceof DocumentSnapshot) {
+            read = 1;
+        } else if (result instanceof AggregateQuerySnapshot aggregate) {
+            read = Math.max(1, (aggregate.getCount() + 999) / 1000);
+        } else if (result instanceof WriteResult) {
+            written = 1;
+        } else if (result instanceof List<?> list && !list.isEmpty()) {
+            if (list.get(0) instanceof WriteResult) written = list.size();
+            else if (list.get(0) instanceof DocumentSnapshot) read = list.size();
+        }
+
+        if (read > 0) {
+            documentsRead(method, collection).increment(read);
+        }
+        if (written > 0) {
+            Counter.builder("haelin.firestore.documents.written")
+                    .tag("method", method).tag("collection", collection)
+                    .register(Metrics.globalRegistry).increment(written);
+        }
+    }
+
+    private static Counter documentsRead(String method, String collection) {
+        return Counter.builder("haelin.firestore.documents.read")
+                .tag("method", method).tag("collection", collection)
+                .register(Metrics.globalRegistry);
+    }
+
+    private static Counter errors(String method, String collection, Throwable t) {
+        return Counter.builder("haelin.firestore.errors")
+                .tag("method", method).tag("collection", collection).tag("status", status(t))
+                .register(Metrics.globalRegistry);
+    }
+
+    // gRPC status code where there is one (ABORTED, DEADLINE_EXCEEDED, ...), else the exception type
+    private static String status(Throwable t) {
+        Throwable cause = t instanceof ExecutionException && t.getCause() != null ? t.getCause() : t;
+        if (cause instanceof ApiException api) {
+            return api.getStatusCode().getCode().name();
+        }
+        return cause.getClass().getSimpleName();
+    }
+}
@@ -0,0 +1,57 @@
+package com.haelin.http;
+
+import io.github.resilience4j.bulkhead.Bulkhead;
+import io.github.resilience4j.bulkhead.BulkheadFullException;
+import io.github.resilience4j.circuitbreaker.CallNotPermittedException;
+import io.github.resilience4j.circuitbreaker.CircuitBreaker;
+import io.github.resilience4j.reactor.bulkhead.operator.BulkheadOperator;
+import io.github.resilience4j.reactor.circuitbreaker.operator.CircuitBreakerOperator;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Timeout, bulkhead and circuit breaker around the calls to one downstream dependency.
+ *
+ * A call that has not finished within the timeout is cancelled and counted as a failure. At most
+ * maxConcurrent calls are in flight at once; the next one is refused straight away instead of
+ * waiting for a connection from the shared pool, so one slow dependency cannot hold every
+ * connection (and every request waiting on one). Once enough recent calls have failed or been
+ * slow the circuit opens, and calls fail immediately until a few trial calls succeed again.
+ *
+ * Guards are built by {@link ResilienceConfig}.
+ */
+public final class DownstreamGuard {
+
+    private final Duration timeout;
+    private final CircuitBreaker circuitBreaker;
+    private final Bulkhead bulkhead;
+
+    DownstreamGuard(Duration timeout, CircuitBreaker circuitBreaker, Bulkhead bulkhead) {
+        this.timeout = timeout;
+        this.circuitBreaker = circuitBreaker;
+        this.bulkhead = bulkhead;
+    }
+
+    // The bulkhead is outermost, so refused calls never reach (or count against) the breaker
+    public <T> Mono<T> protect(Mono<T> call) {
+        return call.timeout(timeout)
+                .transformDeferred(CircuitBreakerOperator.of(circuitBreaker))
+                .transformDeferred(BulkheadOperator.of(bulkhead));
+    }
+
+    // Refused by a guard or timed out; callers answer 503 rather than 500 for these
+    public static boolean isUnavailable(Throwable t) {
+        Throwable cause = t;
+        while ((cause instanceof CompletionException || cause instanceof ExecutionException)
+                && cause.getCause() != null) {
+            cause = cause.getCause();
+        }
+        return cause instanceof CallNotPermittedException
+                || cause instanceof BulkheadFullException
+                || cause instanceof TimeoutException;
+    }
+}
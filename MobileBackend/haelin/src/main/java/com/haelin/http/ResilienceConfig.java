@@ -0,0 +1,100 @@
+package com.haelin.http;
+
+import io.github.resilience4j.bulkhead.Bulkhead;
+import io.github.resilience4j.bulkhead.BulkheadConfig;
+import io.github.resilience4j.bulkhead.BulkheadRegistry;
+import io.github.resilience4j.circuitbreaker.CircuitBreaker;
+import io.github.resilience4j.circuitbreaker.CircuitBreakerConfig;
+import io.github.resilience4j.circuitbreaker.CircuitBreakerRegistry;
+import io.github.resilience4j.micrometer.tagged.TaggedBulkheadMetrics;
+import io.github.resilience4j.micrometer.tagged.TaggedCircuitBreakerMetrics;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+
+import java.time.Duration;
+
+// One DownstreamGuard per dependency: Overpass and each FastAPI predictor.
+// Breaker and bulkhead state is exported as resilience4j.circuitbreaker.* and resilience4j.bulkhead.*.
+@Configuration
+public class ResilienceConfig {
+
+    private static final Logger log = LoggerFactory.getLogger(ResilienceConfig.class);
+
+    private final CircuitBreakerRegistry circuitBreakers = CircuitBreakerRegistry.ofDefaults();
+    private final BulkheadRegistry bulkheads = BulkheadRegistry.ofDefaults();
+
+    private final int failureRate;
+    private final int windowSize;
+    private final Duration openWait;
+
+    @Autowired
+    public ResilienceConfig(MeterRegistry meterRegistry,
+                            @Value("${haelin.resilience.failure-rate:50}") int failureRate,
+                            @Value("${haelin.resilience.window-size:20}") int windowSize,
+                            @Value("${haelin.resilience.open-wait-ms:30000}") long openWaitMs) {
+        this.failureRate = failureRate;
+        this.windowSize = windowSize;
+        this.openWait = Duration.ofMillis(openWaitMs);
+        TaggedCircuitBreakerMetrics.ofCircuitBreakerRegistry(circuitBreakers).bindTo(meterRegistry);
+        TaggedBulkheadMetrics.ofBulkheadRegistry(bulkheads).bindTo(meterRegistry);
+    }
+
+    @Bean
+    public DownstreamGuard overpassGuard(@Value("${haelin.resilience.overpass.timeout-ms:8000}") long timeoutMs,
+                                         @Value("${haelin.resilience.overpass.slow-call-ms:4000}") long slowCallMs,
+                                         @Value("${haelin.resilience.overpass.max-concurrent:32}") int maxConcurrent) {
+        return guard("overpass", timeoutMs, slowCallMs, maxConcurrent);
+    }
+
+    @Bean
+    public DownstreamGuard dengueGuard(@Value("${haelin.resilience.predict.timeout-ms:3000}") long timeoutMs,
+                                       @Value("${haelin.resilience.predict.slow-call-ms:1000}") long slowCallMs,
+                                       @Value("${haelin.resilience.predict.max-concurrent:32}") int maxConcurrent) {
+        return guard("dengue", timeoutMs, slowCallMs, maxConcurrent);
+    }
+
+    @Bean
+    public DownstreamGuard chikunGuard(@Value("${haelin.resilience.predict.timeout-ms:3000}") long timeoutMs,
+                                       @Value("${haelin.resilience.predict.slow-call-ms:1000}") long slowCallMs,
+                                       @Value("${haelin.resilience.predict.max-concurrent:32}") int maxConcurrent) {
+        return guard("chikun", timeoutMs, slowCallMs, maxConcurrent);
+    }
+
+    // Public so haelin-benchmarks can build the same guards without a Spring context
+    public DownstreamGuard guard(String name, long timeoutMs, long slowCallMs, int maxConcurrent) {
+        CircuitBreaker circuitBreaker = circuitBreakers.circuitBreaker(name, CircuitBreakerConfig.custom()
+                .slidingWindowType(CircuitBreakerConfig.SlidingWindowType.COUNT_BASED)
+                .slidingWindowSize(windowSize)
+                .minimumNumberOfCalls(windowSize)
+                .failureRateThreshold(failureRate)
+                .slowCallRateThreshold(failureRate)
+                .slowCallDurationThreshold(Duration.ofMillis(slowCallMs))
+                .waitDurationInOpenState(openWait)
+                .permittedNumberOfCallsInHalfOpenState(3)
+                .recordException(ResilienceConfig::isDependencyFailure)
+                .build());
+        circuitBreaker.getEventPublisher().onStateTransition(event ->
+                log.warn("Circuit for {} is now {}", name, event.getStateTransition().getToState()));
+
+        // Refuse instead of waiting: the caller is a request that should fail fast
+        Bulkhead bulkhead = bulkheads.bulkhead(name, BulkheadConfig.custom()
+                .maxConcurrentCalls(maxConcurrent)
+                .maxWaitDuration(Duration.ZERO)
+                .build());
+
+        return new DownstreamGuard(Duration.ofMillis(timeoutMs), circuitBreaker, bulkhead);
+    }
+
+    // A 4xx is our request's fault, not the dependency's; 429 (Overpass rate limiting) still counts
+    private static boolean isDependencyFailure(Throwable t) {
+        return !(t instanceof WebClientResponseException response
+                && response.getStatusCode().is4xxClientError()
+                && response.getStatusCode().value() != 429);
+    }
+}
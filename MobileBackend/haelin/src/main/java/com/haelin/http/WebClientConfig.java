@@ -0,0 +1,93 @@
+package com.haelin.http;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.netty.channel.ChannelOption;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.http.client.reactive.ReactorClientHttpConnector;
+import org.springframework.web.reactive.function.client.ExchangeFilterFunction;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.publisher.Mono;
+import reactor.netty.http.client.HttpClient;
+import reactor.netty.resources.ConnectionProvider;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+@Configuration
+public class WebClientConfig {
+
+    // Request attribute naming the service method behind a downstream call, e.g. "MapService.callOverpass"
+    public static final String CALL_ATTRIBUTE = "haelin.call";
+
+    // One pooled client for all downstream HTTP calls (Overpass, FastAPI predictors).
+    // The pool caps in-flight calls; callers beyond the pending queue fail fast instead of piling up.
+    @Bean
+    public WebClient downstreamWebClient(WebClient.Builder builder, MeterRegistry meterRegistry,
+                                         @Value("${haelin.http.max-connections:200}") int maxConnections,
+                                         @Value("${haelin.http.max-pending:1000}") int maxPending,
+                                         @Value("${haelin.http.connect-timeout-ms:2000}") int connectTimeoutMs,
+                                         @Value("${haelin.http.response-timeout-ms:10000}") long responseTimeoutMs) {
+        ConnectionProvider provider = ConnectionProvider.builder("haelin-downstream")
+                .maxConnections(maxConnections)
+                .pendingAcquireMaxCount(maxPending)
+                .pendingAcquireTimeout(Duration.ofMillis(responseTimeoutMs))
+                .maxIdleTime(Duration.ofSeconds(30))
+                .metrics(true)
+                .build();
+
+        HttpClient httpClient = HttpClient.create(provider)
+                .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, connectTimeoutMs)
+                .responseTimeout(Duration.ofMillis(responseTimeoutMs));
+
+        return builder.clientConnector(new ReactorClientHttpConnector(httpClient))
+                .filter(metrics(meterRegistry))
+                .build();
+    }
+
+    // haelin.downstream.calls (timer, to response headers) and haelin.downstream.errors, tagged by call.
+    // Errors are HTTP statuses of 400 and up, or the exception type when no response came back.
+    private static ExchangeFilterFunction metrics(MeterRegistry meterRegistry) {
+        return (request, next) -> {
+            String call = request.attribute(CALL_ATTRIBUTE).map(Object::toString).orElse("unknown");
+            int port = request.url().getPort();
+            String target = port < 0 ? request.url().getHost() : request.url().getHost() + ":" + port;
+            return Mono.defer(() -> {
+                long start = System.nanoTime();
+                return next.exchange(request)
+                        .doOnSuccess(response -> {
+                            int status = response.statusCode().value();
+                            record(meterRegistry, call, target, String.valueOf(status), start);
+                            if (status >= 400) error(meterRegistry, call, target, String.valueOf(status));
+                        })
+                        .doOnError(e -> {
+                            record(meterRegistry, call, target, "IO_ERROR", start);
+                            error(meterRegistry, call, target, e.getClass().getSimpleName());
+                        })
+                        .doOnCancel(() -> record(meterRegistry, call, target, "CANCELLED", start));
+            });
+        };
+    }
+
+    private static void record(MeterRegistry meterRegistry, String call, String target, String status, long start) {
+        Timer.builder("haelin.downstream.calls")
+                .tag("call", call)
+                .tag("target", target)
+                .tag("status", status)
+                .publishPercentileHistogram()
+                .register(meterRegistry)
+                .record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+    }
+
+    private static void error(MeterRegistry meterRegistry, String call, String target, String reason) {
+        Counter.builder("haelin.downstream.errors")
+                .tag("call", call)
+                .tag("target", target)
+                .tag("reason", reason)
+                .register(meterRegistry)
+                .increment();
+    }
+}
@@ -0,0 +1,14 @@
+package com.haelin.id;
+
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Source of human-readable, sequential document IDs (MR001, PR001...).
+ */
+public interface IdAllocator {
+
+    String nextId() throws ExecutionException, InterruptedException;
+
+    // Reserves count consecutive IDs in one round trip, for bulk writes
+    IdRange reserve(int count) throws ExecutionException, InterruptedException;
+}
@@ -0,0 +1,38 @@
+package com.haelin.id;
+
+import com.google.cloud.firestore.Firestore;
+import com.google.cloud.firestore.QueryDocumentSnapshot;
+import com.haelin.firebase.FirestoreMetrics;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+@Configuration
+public class IdAllocatorConfig {
+
+    @Bean
+    public IdAllocator medRecIdAllocator(Firestore firestore,
+                                         @Value("${haelin.ids.block-size:100}") int blockSize) {
+        // The counter doc is new, so seed it once from the highest MRxxx already stored
+        return new LeasedIdAllocator(firestore, "medRecCounter", "MR", blockSize, transaction -> {
+            long max = 0;
+            for (QueryDocumentSnapshot doc : FirestoreMetrics.get("IdAllocatorConfig.seedMedRecCounter", "medical_records",
+                    transaction.get(firestore.collection("medical_records")))) {
+                String medID = doc.getString("medID");
+                if (medID != null && medID.startsWith("MR")) {
+                    try {
+                        max = Math.max(max, Long.parseLong(medID.substring(2)));
+                    } catch (NumberFormatException ignored) {}
+                }
+            }
+            return max;
+        });
+    }
+
+    @Bean
+    public IdAllocator predictionIdAllocator(Firestore firestore,
+                                             @Value("${haelin.ids.block-size:100}") int blockSize) {
+        // counters/predictionCounter already exists; a missing one simply starts at PR001
+        return new LeasedIdAllocator(firestore, "predictionCounter", "PR", blockSize, transaction -> 0L);
+    }
+}
@@ -0,0 +1,31 @@
+package com.haelin.id;
+
+import java.util.function.LongFunction;
+
+/**
+ * A contiguous run of reserved IDs, e.g. MR10001-MR15000, formatted on demand.
+ */
+public final class IdRange {
+
+    private final long first;
+    private final int count;
+    private final LongFunction<String> format;
+
+    IdRange(long first, int count, LongFunction<String> format) {
+        this.first = first;
+        this.count = count;
+        this.format = format;
+    }
+
+    public int size() {
+        return count;
+    }
+
+    // The index-th ID of the range, from 0 to size() - 1
+    public String get(int index) {
+        if (index < 0 || index >= count) {
+            throw new IndexOutOfBoundsException(index);
+        }
+        return format.apply(first + index);
+    }
+}
@@ -0,0 +1,135 @@
+package com.haelin.id;
+
+import com.google.api.core.ApiFuture;
+import com.google.cloud.firestore.DocumentReference;
+import com.google.cloud.firestore.DocumentSnapshot;
+import com.google.cloud.firestore.Firestore;
+import com.google.cloud.firestore.Transaction;
+import com.haelin.firebase.FirestoreMetrics;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Hands out sequential IDs such as MR001, MR002... without a Firestore round trip per ID.
+ *
+ * Each node leases a block of numbers (e.g. 10001-10100) from a counter document in one
+ * transaction and then serves them locally from an AtomicLong. Numbers left in a block when
+ * the node stops are never reused, so IDs stay unique across instances but may have gaps.
+ */
+public class LeasedIdAllocator implements IdAllocator {
+
+    private static final String COUNTER_COLLECTION = "counters";
+    private static final String COUNTER_FIELD = "lastNumber";
+
+    /**
+     * Supplies the starting value the first time the counter document is created, so that
+     * collections which were numbered before the counter existed continue where they left off.
+     */
+    @FunctionalInterface
+    public interface CounterSeed {
+        long lastIssued(Transaction transaction) throws Exception;
+    }
+
+    // A leased range; next may run past end once the block is exhausted
+    private static final class Block {
+        private final AtomicLong next;
+        private final long end;
+
+        private Block(long start, long end) {
+            this.next = new AtomicLong(start);
+            this.end = end;
+        }
+    }
+
+    private final Firestore firestore;
+    private final String counterDoc;
+    private final String prefix;
+    private final int blockSize;
+    private final CounterSeed seed;
+
+    // A lock rather than synchronized so a virtual thread waiting on the lease transaction
+    // does not pin its carrier thread
+    private final ReentrantLock refillLock = new ReentrantLock();
+
+    private volatile Block current;
+
+    public LeasedIdAllocator(Firestore firestore, String counterDoc, String prefix, int blockSize, CounterSeed seed) {
+        if (blockSize < 1) {
+            throw new IllegalArgumentException("blockSize must be at least 1");
+        }
+        this.firestore = firestore;
+        this.counterDoc = counterDoc;
+        this.prefix = prefix;
+        this.blockSize = blockSize;
+        this.seed = seed;
+    }
+
+    @Override
+    public String nextId() throws ExecutionException, InterruptedException {
+        while (true) {
+            Block block = current;
+            if (block != null) {
+                long number = block.next.getAndIncrement();
+                if (number <= block.end) {
+                    return format(number);
+                }
+            }
+            refill(block);
+        }
+    }
+
+    // Leased straight from the counter, independent of this node's current block
+    @Override
+    public IdRange reserve(int count) throws ExecutionException, InterruptedException {
+        if (count < 1) {
+            throw new IllegalArgumentException("count must be at least 1");
+        }
+        return new IdRange(lease(count), count, this::format);
+    }
+
+    public String format(long number) {
+        return String.format("%s%03d", prefix, number);
+    }
+
+    // Only one thread leases a new block; the others retry against it once it is published
+    private void refill(Block exhausted) throws ExecutionException, InterruptedException {
+        refillLock.lock();
+        try {
+            if (current != exhausted) {
+                return;
+            }
+            long first = lease(blockSize);
+            current = new Block(first, first + blockSize - 1);
+        } finally {
+            refillLock.unlock();
+        }
+    }
+
+    // Reserves count numbers in one transaction and returns the first of them
+    protected long lease(int count) throws ExecutionException, InterruptedException {
+        DocumentReference counterRef = firestore.collection(COUNTER_COLLECTION).document(counterDoc);
+
+        ApiFuture<Long> first = firestore.runTransaction(transaction -> {
+            DocumentSnapshot snapshot = FirestoreMetrics.get("LeasedIdAllocator.readCounter", COUNTER_COLLECTION,
+                    transaction.get(counterRef));
+
+            long last;
+            if (snapshot.exists() && snapshot.getLong(COUNTER_FIELD) != null) {
+                last = snapshot.getLong(COUNTER_FIELD);
+            } else {
+                last = seed.lastIssued(transaction);
+            }
+
+            Map<String, Object> update = new HashMap<>();
+            update.put(COUNTER_FIELD, last + count);
+            transaction.set(counterRef, update);
+
+            return last + 1;
+        });
+        return FirestoreMetrics.get("LeasedIdAllocator.lease", COUNTER_COLLECTION, first);
+    }
+}
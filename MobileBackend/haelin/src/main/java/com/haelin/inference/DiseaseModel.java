@@ -0,0 +1,34 @@
+package com.haelin.inference;
+
+import java.util.List;
+
+/**
+ * A disease classifier that runs inside the JVM.
+ *
+ * Implementations take raw symptom features, in the same order the Python services use, and
+ * apply any scaling themselves.
+ */
+public interface DiseaseModel {
+
+    // Payload keys, in training order
+    List<String> features();
+
+    // Identifies the exact model file, so cached results can be tied to one model version
+    String checksum();
+
+    // Classifies each row of features; rows.length results, in order
+    Result[] predict(float[][] rows) throws Exception;
+
+    final class Result {
+        private final int prediction;   // 0 = negative, 1 = positive
+        private final double score;     // probability of the predicted class
+
+        public Result(int prediction, double score) {
+            this.prediction = prediction;
+            this.score = score;
+        }
+
+        public int getPrediction() { return prediction; }
+        public double getScore() { return score; }
+    }
+}
@@ -0,0 +1,85 @@
+package com.haelin.inference;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Loads the exported Dengue/Chikungunya models from haelin.models.dir at startup.
+ *
+ * A missing or unreadable model file is not an error: that disease is simply served by its
+ * remote FastAPI service instead.
+ */
+@Component
+public class DiseaseModels implements DisposableBean {
+
+    public static final String DENGUE = "dengue";
+    public static final String CHIKUN = "chikun";
+
+    // Same order as the feature arrays built in Dengue_FastAPI/main.py and Chikun_FastAPI/main.py
+    public static final List<String> DENGUE_FEATURES = List.of("Fever", "Headache", "JointPain", "Bleeding");
+    public static final List<String> CHIKUN_FEATURES = List.of(
+            "sex", "fever", "cold", "joint_pains", "myalgia",
+            "headache", "fatigue", "vomitting", "arthritis",
+            "Conjuctivitis", "Nausea", "Maculopapular_rash",
+            "Eye_Pain", "Chills", "Swelling");
+
+    private static final Logger log = LoggerFactory.getLogger(DiseaseModels.class);
+
+    private final Map<String, DiseaseModel> models = new ConcurrentHashMap<>();
+
+    public DiseaseModels(@Value("${haelin.models.dir:models}") String modelsDir) {
+        load(Path.of(modelsDir, DENGUE + ".onnx"), DENGUE, DENGUE_FEATURES);
+        load(Path.of(modelsDir, CHIKUN + ".onnx"), CHIKUN, CHIKUN_FEATURES);
+    }
+
+    public Optional<DiseaseModel> get(String disease) {
+        return Optional.ofNullable(models.get(disease));
+    }
+
+    private void load(Path file, String disease, List<String> features) {
+        if (!Files.isRegularFile(file)) {
+            log.info("No {} model at {}; using the remote prediction service", disease, file.toAbsolutePath());
+            return;
+        }
+        try {
+            models.put(disease, new OnnxDiseaseModel(file.toString(), features, sha256(file)));
+            log.info("Loaded in-process {} model from {}", disease, file.toAbsolutePath());
+        } catch (Exception e) {
+            log.warn("Could not load {} model from {}; using the remote prediction service", disease, file, e);
+        }
+    }
+
+    private static String sha256(Path file) throws Exception {
+        MessageDigest digest = MessageDigest.getInstance("SHA-256");
+        try (InputStream in = Files.newInputStream(file)) {
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                digest.update(buffer, 0, read);
+            }
+        }
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    @Override
+    public void destroy() throws Exception {
+        for (DiseaseModel model : models.values()) {
+            if (model instanceof AutoCloseable closeable) {
+                closeable.close();
+            }
+        }
+    }
+}
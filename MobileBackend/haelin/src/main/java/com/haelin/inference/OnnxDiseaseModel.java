@@ -0,0 +1,72 @@
+package com.haelin.inference;
+
+import ai.onnxruntime.OnnxTensor;
+import ai.onnxruntime.OrtEnvironment;
+import ai.onnxruntime.OrtException;
+import ai.onnxruntime.OrtSession;
+
+import java.nio.FloatBuffer;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Runs a scikit-learn scaler + classifier pipeline exported to ONNX (see scripts/export_onnx.py).
+ *
+ * The graph takes one float tensor [rows, features] and returns the label tensor followed by a
+ * [rows, classes] probability tensor (exported with zipmap disabled). A session is thread-safe,
+ * so one instance serves all requests.
+ */
+public class OnnxDiseaseModel implements DiseaseModel, AutoCloseable {
+
+    private final OrtEnvironment env;
+    private final OrtSession session;
+    private final String inputName;
+    private final List<String> features;
+    private final String checksum;
+
+    public OnnxDiseaseModel(String modelPath, List<String> features, String checksum) throws OrtException {
+        this.env = OrtEnvironment.getEnvironment();
+        this.session = env.createSession(modelPath, new OrtSession.SessionOptions());
+        this.inputName = session.getInputNames().iterator().next();
+        this.features = List.copyOf(features);
+        this.checksum = checksum;
+    }
+
+    @Override
+    public List<String> features() {
+        return features;
+    }
+
+    @Override
+    public String checksum() {
+        return checksum;
+    }
+
+    @Override
+    public Result[] predict(float[][] rows) throws OrtException {
+        int width = features.size();
+        FloatBuffer input = FloatBuffer.allocate(rows.length * width);
+        for (float[] row : rows) {
+            input.put(row, 0, width);
+        }
+        input.flip();
+
+        try (OnnxTensor tensor = OnnxTensor.createTensor(env, input, new long[]{rows.length, width});
+             OrtSession.Result output = session.run(Collections.singletonMap(inputName, tensor))) {
+            long[] labels = (long[]) output.get(0).getValue();
+            float[][] probabilities = (float[][]) output.get(1).getValue();
+
+            Result[] results = new Result[rows.length];
+            for (int i = 0; i < rows.length; i++) {
+                int label = (int) labels[i];
+                results[i] = new Result(label, probabilities[i][label]);
+            }
+            return results;
+        }
+    }
+
+    @Override
+    public void close() throws OrtException {
+        session.close();
+    }
+}
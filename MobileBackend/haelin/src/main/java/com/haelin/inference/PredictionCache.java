@@ -0,0 +1,122 @@
+package com.haelin.inference;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Memoized model results, keyed by the packed symptom vector.
+ *
+ * Each feature is an integer from 0 to 15, stored in 4 bits of a long, so models with up to 15
+ * features get a unique primitive key. Keys live in an open-addressing long table, so a lookup
+ * never boxes. Every table belongs to one model version (the model checksum). When a different
+ * version is seen, the whole table is replaced, so a redeployed model never serves stale results.
+ *
+ * Reads are lock-free. Writes are serialized. When the table is 3/4 full, new results are no
+ * longer stored.
+ */
+public final class PredictionCache {
+
+    // Returned by pack() for rows that cannot be keyed (fractional, negative or > 15 values)
+    public static final long NOT_CACHEABLE = -1;
+
+    private static final int BITS_PER_FEATURE = 4;
+    private static final int MAX_FEATURES = 15;
+    private static final long MAX_VALUE = (1L << BITS_PER_FEATURE) - 1;
+
+    // Marks a slot as used, so the all-zero symptom vector is still a valid key
+    private static final long OCCUPIED = 1L << 63;
+
+    private final int capacity;
+    private volatile Table table;
+
+    public PredictionCache(int capacity) {
+        this.capacity = Integer.highestOneBit(Math.max(capacity, 16) - 1) << 1;
+        this.table = new Table(null, this.capacity);
+    }
+
+    public static long pack(float[] row) {
+        if (row.length > MAX_FEATURES) {
+            return NOT_CACHEABLE;
+        }
+        long key = 0;
+        for (float value : row) {
+            long v = (long) value;
+            if (v != value || v < 0 || v > MAX_VALUE) {
+                return NOT_CACHEABLE;
+            }
+            key = (key << BITS_PER_FEATURE) | v;
+        }
+        return key;
+    }
+
+    // Null on a miss, an unknown version, or a key that cannot be cached
+    public DiseaseModel.Result get(String version, long key) {
+        Table current = table;
+        if (key == NOT_CACHEABLE || version == null || !version.equals(current.version)) {
+            return null;
+        }
+        return current.get(key | OCCUPIED);
+    }
+
+    public void put(String version, long key, DiseaseModel.Result result) {
+        if (key == NOT_CACHEABLE || version == null) {
+            return;
+        }
+        synchronized (this) {
+            Table current = table;
+            if (!version.equals(current.version)) {
+                current = new Table(version, capacity);
+                table = current;
+            }
+            current.put(key | OCCUPIED, result);
+        }
+    }
+
+    public int size() {
+        return table.size;
+    }
+
+    private static final class Table {
+        private final String version;
+        private final AtomicLongArray keys;
+        private final DiseaseModel.Result[] values;
+        private final int mask;
+        private final int limit;
+        private volatile int size;   // written only under the cache's lock
+
+        private Table(String version, int capacity) {
+            this.version = version;
+            this.keys = new AtomicLongArray(capacity);
+            this.values = new DiseaseModel.Result[capacity];
+            this.mask = capacity - 1;
+            this.limit = capacity / 4 * 3;
+        }
+
+        private DiseaseModel.Result get(long key) {
+            for (int i = slot(key); ; i = (i + 1) & mask) {
+                long k = keys.get(i);
+                if (k == key) return values[i];
+                if (k == 0) return null;
+            }
+        }
+
+        // Value first, then the key with a volatile write, so a reader that sees the key sees the value
+        private void put(long key, DiseaseModel.Result result) {
+            for (int i = slot(key); ; i = (i + 1) & mask) {
+                long k = keys.get(i);
+                if (k == key) return;
+                if (k == 0) {
+                    if (size >= limit) return;
+                    values[i] = result;
+                    keys.set(i, key);
+                    size++;
+                    return;
+                }
+            }
+        }
+
+        private int slot(long key) {
+            long h = key * 0x9E3779B97F4A7C15L;
+            return (int) (h >>> 32) & mask;
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package com.haelin.model;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+// Live progress of one bulk import; counters are updated by the import while it runs
+public class ImportProgress {
+    private final String jobId;
+    private final String format;
+    private final long startedAt = System.currentTimeMillis();
+    private final AtomicLong rowsRead = new AtomicLong();
+    private final AtomicLong written = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong skipped = new AtomicLong();     // rows that could not be parsed
+    private volatile String status = "RUNNING";            // RUNNING, DONE or FAILED
+    private volatile String error;
+    private volatile String firstId;
+    private volatile String lastId;
+    private volatile Long finishedAt;
+
+    public ImportProgress(String jobId, String format) {
+        this.jobId = jobId;
+        this.format = format;
+    }
+
+    public String getJobId() { return jobId; }
+    public String getFormat() { return format; }
+    public String getStatus() { return status; }
+    public String getError() { return error; }
+    public long getStartedAt() { return startedAt; }
+    public Long getFinishedAt() { return finishedAt; }
+    public long getRowsRead() { return rowsRead.get(); }
+    public long getWritten() { return written.get(); }
+    public long getFailed() { return failed.get(); }
+    public long getSkipped() { return skipped.get(); }
+    public String getFirstId() { return firstId; }
+    public String getLastId() { return lastId; }
+
+    public double getRowsPerSecond() {
+        long end = finishedAt != null ? finishedAt : System.currentTimeMillis();
+        return written.get() * 1000.0 / Math.max(1, end - startedAt);
+    }
+
+    public void rowRead() { rowsRead.incrementAndGet(); }
+    public void rowWritten() { written.incrementAndGet(); }
+    public void rowFailed() { failed.incrementAndGet(); }
+    public void rowSkipped() { skipped.incrementAndGet(); }
+
+    public void idsAssigned(String first, String last) {
+        if (firstId == null) firstId = first;
+        lastId = last;
+    }
+
+    public void finish(String error) {
+        this.error = error;
+        this.status = error == null ? "DONE" : "FAILED";
+        this.finishedAt = System.currentTimeMillis();
+    }
+}
@@ -4,6 +4,7 @@ public class Notification {
     private String userId;
     private String title;
     private String description;
+    private Long createdAt;     // epoch millis, set by the server
 
     public Notification() {
     }
@@ -37,4 +38,12 @@ public class Notification {
     public void setDescription(String description) {
         this.description = description;
     }
+
+    public Long getCreatedAt() {
+        return createdAt;
+    }
+
+    public void setCreatedAt(Long createdAt) {
+        this.createdAt = createdAt;
+    }
 }
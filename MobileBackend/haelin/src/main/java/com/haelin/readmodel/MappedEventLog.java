@@ -0,0 +1,147 @@
+package com.haelin.readmodel;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Append-only event log written through a memory-mapped region of the file.
+ *
+ * Each record is [int length][byte type][long version][short idLength][id][payload], where
+ * length covers everything after itself. The length is written last, so a record torn by a
+ * crash reads as length 0, which marks the end of the log. When a record does not fit in the
+ * current region, a new region is mapped at the write position and the file grows with it.
+ *
+ * Not thread-safe; the read model appends from a single thread.
+ */
+final class MappedEventLog implements AutoCloseable {
+
+    static final byte UPSERT = 1;
+    static final byte DELETE = 2;
+
+    @FunctionalInterface
+    interface EventHandler {
+        void handle(byte type, long version, String id, byte[] payload);
+    }
+
+    @FunctionalInterface
+    interface Writer {
+        void write(MappedEventLog log) throws IOException;
+    }
+
+    private static final int HEADER_BYTES = 4 + 1 + 8 + 2;
+
+    private final Path path;
+    private final int regionBytes;
+
+    private FileChannel channel;
+    private MappedByteBuffer region;
+    private long regionStart;
+    private long position;
+
+    MappedEventLog(Path path, int regionBytes) throws IOException {
+        this.path = path;
+        this.regionBytes = regionBytes;
+        if (path.getParent() != null) {
+            Files.createDirectories(path.getParent());
+        }
+        this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+    }
+
+    // Hands every complete record to the handler, in order, and positions the log after the last one
+    long replay(EventHandler handler) throws IOException {
+        long end = 0;
+        long count = 0;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path), 1 << 16))) {
+            while (true) {
+                int length = in.readInt();
+                if (length < HEADER_BYTES - 4 || end + 4 + length > channel.size()) {
+                    break;
+                }
+                byte type = in.readByte();
+                long version = in.readLong();
+                byte[] id = new byte[in.readUnsignedShort()];
+                in.readFully(id);
+                byte[] payload = new byte[length - (HEADER_BYTES - 4) - id.length];
+                in.readFully(payload);
+
+                handler.handle(type, version, new String(id, StandardCharsets.UTF_8), payload);
+                end += 4 + length;
+                count++;
+            }
+        } catch (EOFException e) {
+            // A record cut off at the end of the file; everything before it is intact
+        }
+        this.position = end;
+        map(end);
+        return count;
+    }
+
+    void append(byte type, long version, String id, byte[] payload) throws IOException {
+        byte[] idBytes = id.getBytes(StandardCharsets.UTF_8);
+        int length = HEADER_BYTES - 4 + idBytes.length + payload.length;
+        if (4 + length > regionBytes) {
+            throw new IOException("Event of " + length + " bytes does not fit a " + regionBytes + "-byte region");
+        }
+        if (region == null || position - regionStart + 4 + length > regionBytes) {
+            map(position);
+        }
+
+        int offset = (int) (position - regionStart);
+        region.position(offset + 4);
+        region.put(type);
+        region.putLong(version);
+        region.putShort((short) idBytes.length);
+        region.put(idBytes);
+        region.put(payload);
+        region.putInt(offset, length);
+        position += 4 + length;
+    }
+
+    long size() {
+        return position;
+    }
+
+    // Replaces this log with one written by the given writer (used to compact it)
+    void rewrite(Writer writer) throws IOException {
+        Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+        Files.deleteIfExists(tmp);
+        try (MappedEventLog compacted = new MappedEventLog(tmp, regionBytes)) {
+            compacted.replay((type, version, id, payload) -> { });
+            writer.write(compacted);
+        }
+
+        close();
+        Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        this.channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        this.region = null;
+        replay((type, version, id, payload) -> { });
+    }
+
+    private void map(long start) throws IOException {
+        this.region = channel.map(FileChannel.MapMode.READ_WRITE, start, regionBytes);
+        this.regionStart = start;
+    }
+
+    // Flushes the mapped pages; they also reach the file on process exit without this
+    void force() {
+        if (region != null) {
+            region.force();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        force();
+        channel.close();
+    }
+}
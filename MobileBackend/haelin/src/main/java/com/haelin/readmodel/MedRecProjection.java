@@ -0,0 +1,189 @@
+package com.haelin.readmodel;
+
+import com.haelin.model.MedRec;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.Predicate;
+
+/**
+ * In-memory medical records with secondary indexes on userId, diagnosis and date.
+ *
+ * Changes come from one thread at a time (writes are synchronized). Reads take no lock: they
+ * look up IDs in an index, then re-check each record, so a read racing a change never returns a
+ * record that does not match.
+ *
+ * Every record keeps the Firestore update time it was read at. A change older than what is
+ * already held is ignored, so a late listener event cannot undo a newer local write.
+ */
+final class MedRecProjection {
+
+    private static final class Entry {
+        private final MedRec record;
+        private final long version;
+
+        private Entry(MedRec record, long version) {
+            this.record = record;
+            this.version = version;
+        }
+    }
+
+    private final Map<String, Entry> byId = new ConcurrentHashMap<>();
+    private final Map<String, Set<String>> byUser = new ConcurrentHashMap<>();
+    private final Map<String, Set<String>> byDiagnosis = new ConcurrentHashMap<>();
+    private final NavigableMap<String, Set<String>> byDate = new ConcurrentSkipListMap<>();
+
+    // Deletion times, so an upsert older than the delete is not resurrected
+    private final Map<String, Long> deleted = new ConcurrentHashMap<>();
+
+    // True if the record changed the projection
+    synchronized boolean upsert(String id, MedRec record, long version) {
+        Entry current = byId.get(id);
+        if (current != null && current.version >= version) {
+            return false;
+        }
+        Long deletedAt = deleted.get(id);
+        if (deletedAt != null && deletedAt >= version) {
+            return false;
+        }
+        deleted.remove(id);
+
+        if (current != null) {
+            unindex(id, current.record);
+        }
+        byId.put(id, new Entry(record, version));
+        index(id, record);
+        return current == null || !sameFields(current.record, record);
+    }
+
+    synchronized boolean delete(String id, long version) {
+        Entry current = byId.get(id);
+        if (current != null && current.version > version) {
+            return false;
+        }
+        deleted.merge(id, version, Math::max);
+        if (current == null) {
+            return false;
+        }
+        byId.remove(id);
+        unindex(id, current.record);
+        return true;
+    }
+
+    MedRec get(String id) {
+        Entry entry = byId.get(id);
+        return entry == null ? null : entry.record;
+    }
+
+    long version(String id) {
+        Entry entry = byId.get(id);
+        return entry == null ? 0 : entry.version;
+    }
+
+    Set<String> ids() {
+        return byId.keySet();
+    }
+
+    int size() {
+        return byId.size();
+    }
+
+    List<MedRec> all() {
+        List<MedRec> records = new ArrayList<>(byId.size());
+        for (Entry entry : byId.values()) {
+            records.add(entry.record);
+        }
+        return records;
+    }
+
+    List<MedRec> byUser(String userId) {
+        return resolve(byUser.get(userId), record -> Objects.equals(record.getUserId(), userId));
+    }
+
+    // Any of the filters may be null; dates are compared as the stored yyyy-MM-dd strings
+    List<MedRec> search(String userId, String diagnosis, String fromDate, String toDate) {
+        Collection<String> candidates;
+        if (userId != null) {
+            candidates = byUser.getOrDefault(userId, Set.of());
+        } else if (diagnosis != null) {
+            candidates = byDiagnosis.getOrDefault(diagnosis, Set.of());
+        } else if (fromDate != null || toDate != null) {
+            candidates = new ArrayList<>();
+            for (Set<String> ids : dateRange(fromDate, toDate).values()) {
+                candidates.addAll(ids);
+            }
+        } else {
+            candidates = byId.keySet();
+        }
+
+        return resolve(candidates, record ->
+                (userId == null || userId.equals(record.getUserId()))
+                        && (diagnosis == null || diagnosis.equals(record.getDiagnosis()))
+                        && (fromDate == null || (record.getDate() != null && record.getDate().compareTo(fromDate) >= 0))
+                        && (toDate == null || (record.getDate() != null && record.getDate().compareTo(toDate) <= 0)));
+    }
+
+    private NavigableMap<String, Set<String>> dateRange(String fromDate, String toDate) {
+        if (fromDate != null && toDate != null) return byDate.subMap(fromDate, true, toDate, true);
+        if (fromDate != null) return byDate.tailMap(fromDate, true);
+        return byDate.headMap(toDate, true);
+    }
+
+    private List<MedRec> resolve(Collection<String> ids, Predicate<MedRec> matches) {
+        if (ids == null) {
+            return new ArrayList<>();
+        }
+        List<MedRec> records = new ArrayList<>(ids.size());
+        for (String id : ids) {
+            MedRec record = get(id);
+            if (record != null && matches.test(record)) {
+                records.add(record);
+            }
+        }
+        return records;
+    }
+
+    private void index(String id, MedRec record) {
+        add(byUser, record.getUserId(), id);
+        add(byDiagnosis, record.getDiagnosis(), id);
+        add(byDate, record.getDate(), id);
+    }
+
+    private void unindex(String id, MedRec record) {
+        remove(byUser, record.getUserId(), id);
+        remove(byDiagnosis, record.getDiagnosis(), id);
+        remove(byDate, record.getDate(), id);
+    }
+
+    private static void add(Map<String, Set<String>> index, String key, String id) {
+        if (key != null) {
+            index.computeIfAbsent(key, k -> ConcurrentHashMap.newKeySet()).add(id);
+        }
+    }
+
+    private static void remove(Map<String, Set<String>> index, String key, String id) {
+        if (key != null) {
+            index.computeIfPresent(key, (k, ids) -> {
+                ids.remove(id);
+                return ids.isEmpty() ? null : ids;
+            });
+        }
+    }
+
+    private static boolean sameFields(MedRec a, MedRec b) {
+        return Objects.equals(a.getMedID(), b.getMedID())
+                && Objects.equals(a.getUserId(), b.getUserId())
+                && Objects.equals(a.getDiagnosis(), b.getDiagnosis())
+                && Objects.equals(a.getRiskStatus(), b.getRiskStatus())
+                && Objects.equals(a.getDate(), b.getDate())
+                && Objects.equals(a.getSymptoms(), b.getSymptoms())
+                && Objects.equals(a.getPredScore(), b.getPredScore());
+    }
+}
@@ -0,0 +1,235 @@
+package com.haelin.readmodel;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.cloud.Timestamp;
+import com.google.cloud.firestore.DocumentChange;
+import com.google.cloud.firestore.Firestore;
+import com.google.cloud.firestore.ListenerRegistration;
+import com.google.cloud.firestore.QueryDocumentSnapshot;
+import com.google.cloud.firestore.QuerySnapshot;
+import com.haelin.firebase.FirestoreMetrics;
+import com.haelin.model.MedRec;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Local read replica of medical_records (haelin.medrec.read-model.enabled).
+ *
+ * Every change is appended to a memory-mapped event log and applied to an indexed in-memory
+ * projection. At startup the log is replayed first, so the projection is warm before Firestore
+ * answers. A snapshot listener on the collection then keeps it in sync. The first snapshot also
+ * removes records deleted while the node was down.
+ *
+ * isReady() turns true once the listener has delivered its first snapshot. Until then, and after
+ * a listener error, MedRecService reads from Firestore as before.
+ */
+@Component
+public class MedRecReadModel implements DisposableBean {
+
+    private static final String COLLECTION_NAME = "medical_records";
+
+    private static final Logger log = LoggerFactory.getLogger(MedRecReadModel.class);
+
+    private final Firestore firestore;
+    private final boolean enabled;
+    private final long compactBytes;
+    private final MedRecProjection projection = new MedRecProjection();
+    private final ObjectMapper objectMapper = new ObjectMapper()
+            .setSerializationInclusion(JsonInclude.Include.NON_NULL);
+
+    private MappedEventLog eventLog;
+    private ListenerRegistration listener;
+    private long nextCompactAt;
+    private volatile boolean ready;
+    private volatile boolean closed;
+
+    @Autowired
+    public MedRecReadModel(Firestore firestore, MeterRegistry meterRegistry,
+                           @Value("${haelin.medrec.read-model.enabled:false}") boolean enabled,
+                           @Value("${haelin.medrec.read-model.log:data/medrec-events.log}") String logPath,
+                           @Value("${haelin.medrec.read-model.region-bytes:16777216}") int regionBytes,
+                           @Value("${haelin.medrec.read-model.compact-bytes:268435456}") long compactBytes)
+            throws IOException {
+        this.firestore = firestore;
+        this.enabled = enabled;
+        this.compactBytes = compactBytes;
+        if (!enabled) {
+            return;
+        }
+
+        this.eventLog = new MappedEventLog(Path.of(logPath), regionBytes);
+        long events = eventLog.replay(this::replayEvent);
+        this.nextCompactAt = Math.max(compactBytes, eventLog.size() * 2);
+        log.info("Replayed {} medical record events ({} records)", events, projection.size());
+
+        Gauge.builder("haelin.medrec.read_model.records", projection, MedRecProjection::size).register(meterRegistry);
+        listen();
+    }
+
+    public boolean isReady() {
+        return enabled && ready;
+    }
+
+    public List<MedRec> all() {
+        return projection.all();
+    }
+
+    public List<MedRec> byUser(String userId) {
+        return projection.byUser(userId);
+    }
+
+    public MedRec get(String medID) {
+        return projection.get(medID);
+    }
+
+    public List<MedRec> search(String userId, String diagnosis, String fromDate, String toDate) {
+        return projection.search(userId, diagnosis, fromDate, toDate);
+    }
+
+    // Applied straight after a local commit, so the writer reads its own write before the listener catches up
+    public void recordWritten(String medID, MedRec record, Timestamp updateTime) {
+        if (enabled) {
+            upsert(medID, record, micros(updateTime));
+        }
+    }
+
+    public void recordDeleted(String medID, Timestamp deleteTime) {
+        if (enabled) {
+            delete(medID, micros(deleteTime));
+        }
+    }
+
+    private void listen() {
+        this.listener = firestore.collection(COLLECTION_NAME).addSnapshotListener((snapshot, error) -> {
+            FirestoreMetrics.listenerEvent("MedRecReadModel.listen", COLLECTION_NAME, snapshot, error);
+            if (error != null) {
+                ready = false;
+                log.warn("Medical record listener failed; reading from Firestore until it reconnects", error);
+                if (!closed) {
+                    CompletableFuture.delayedExecutor(5, TimeUnit.SECONDS).execute(this::listen);
+                }
+                return;
+            }
+            if (snapshot != null) {
+                apply(snapshot);
+            }
+        });
+    }
+
+    private void apply(QuerySnapshot snapshot) {
+        long readTime = micros(snapshot.getReadTime());
+
+        // The first snapshot lists every document; anything else we hold was deleted meanwhile
+        if (!ready) {
+            Set<String> missing = new HashSet<>(projection.ids());
+            for (QueryDocumentSnapshot doc : snapshot.getDocuments()) {
+                missing.remove(doc.getId());
+            }
+            for (String id : missing) {
+                delete(id, readTime);
+            }
+        }
+
+        for (DocumentChange change : snapshot.getDocumentChanges()) {
+            QueryDocumentSnapshot doc = change.getDocument();
+            if (change.getType() == DocumentChange.Type.REMOVED) {
+                delete(doc.getId(), readTime);
+            } else {
+                MedRec record = doc.toObject(MedRec.class);
+                upsert(doc.getId(), record, micros(doc.getUpdateTime()));
+            }
+        }
+
+        if (!ready) {
+            ready = true;
+            log.info("Medical record read model in sync ({} records)", projection.size());
+        }
+    }
+
+    private synchronized void upsert(String id, MedRec record, long version) {
+        if (!projection.upsert(id, record, version)) {
+            return;
+        }
+        try {
+            eventLog.append(MappedEventLog.UPSERT, version, id, objectMapper.writeValueAsBytes(record));
+            compactIfNeeded();
+        } catch (IOException e) {
+            log.warn("Could not append medical record {} to the event log", id, e);
+        }
+    }
+
+    private synchronized void delete(String id, long version) {
+        if (!projection.delete(id, version)) {
+            return;
+        }
+        try {
+            eventLog.append(MappedEventLog.DELETE, version, id, new byte[0]);
+            compactIfNeeded();
+        } catch (IOException e) {
+            log.warn("Could not append deletion of medical record {} to the event log", id, e);
+        }
+    }
+
+    private void replayEvent(byte type, long version, String id, byte[] payload) {
+        if (type == MappedEventLog.DELETE) {
+            projection.delete(id, version);
+            return;
+        }
+        try {
+            projection.upsert(id, objectMapper.readValue(payload, MedRec.class), version);
+        } catch (IOException e) {
+            log.warn("Skipping unreadable event for medical record {}", id, e);
+        }
+    }
+
+    // Rewrites the log as one event per live record once it has grown past the threshold
+    private void compactIfNeeded() throws IOException {
+        if (eventLog.size() < nextCompactAt) {
+            return;
+        }
+        eventLog.rewrite(compacted -> {
+            for (String id : projection.ids()) {
+                MedRec record = projection.get(id);
+                if (record != null) {
+                    compacted.append(MappedEventLog.UPSERT, projection.version(id), id,
+                            objectMapper.writeValueAsBytes(record));
+                }
+            }
+        });
+        nextCompactAt = Math.max(compactBytes, eventLog.size() * 2);
+        log.info("Compacted medical record event log to {} bytes", eventLog.size());
+    }
+
+    private static long micros(Timestamp timestamp) {
+        return timestamp == null ? 0 : timestamp.getSeconds() * 1_000_000 + timestamp.getNanos() / 1_000;
+    }
+
+    @Override
+    public void destroy() throws IOException {
+        if (!enabled) {
+            return;
+        }
+        closed = true;
+        if (listener != null) {
+            listener.remove();
+        }
+        synchronized (this) {
+            eventLog.close();
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package com.haelin.repository;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.cloud.firestore.Query;
+import com.haelin.model.MedRec;
+import com.haelin.model.Notification;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Every {@link IndexedQuery} the backend runs, and the firestore.indexes.json generated from them.
+ * Queries on a single field, or on equality filters alone, use Firestore's automatic indexes and are
+ * not listed; anything needing a composite index must be declared here.
+ *
+ * After adding or changing a query, regenerate and deploy the indexes (from the haelin directory):
+ *
+ *   mvn -q compile exec:java -Dexec.mainClass=com.haelin.repository.FirestoreIndexes
+ *   firebase deploy --only firestore:indexes
+ */
+public final class FirestoreIndexes {
+
+    private static final Logger log = LoggerFactory.getLogger(FirestoreIndexes.class);
+
+    // Patient history screen: newest records first, only the fields it shows
+    public static final IndexedQuery<MedRec> RECENT_MEDICAL_RECORDS = IndexedQuery.on("medical_records", MedRec.class)
+            .whereEqualTo("userId")
+            .orderBy("date", Query.Direction.DESCENDING)
+            .select("medID", "diagnosis", "riskStatus", "date", "symptoms")
+            .build();
+
+    // Notification list: newest first (older notifications get createdAt from NotifiService's backfill)
+    public static final IndexedQuery<Notification> RECENT_NOTIFICATIONS = IndexedQuery.on("notifications", Notification.class)
+            .whereEqualTo("userId")
+            .orderBy("createdAt", Query.Direction.DESCENDING)
+            .select("title", "description", "createdAt")
+            .build();
+
+    // Record search with a date range, for each combination of equality filters that needs a composite index
+    public static final IndexedQuery<MedRec> MEDICAL_RECORDS_BY_USER_AND_DATE = IndexedQuery.on("medical_records", MedRec.class)
+            .whereEqualTo("userId")
+            .orderBy("date", Query.Direction.ASCENDING)
+            .build();
+
+    public static final IndexedQuery<MedRec> MEDICAL_RECORDS_BY_DIAGNOSIS_AND_DATE = IndexedQuery.on("medical_records", MedRec.class)
+            .whereEqualTo("diagnosis")
+            .orderBy("date", Query.Direction.ASCENDING)
+            .build();
+
+    public static final IndexedQuery<MedRec> MEDICAL_RECORDS_BY_USER_DIAGNOSIS_AND_DATE = IndexedQuery.on("medical_records", MedRec.class)
+            .whereEqualTo("userId")
+            .whereEqualTo("diagnosis")
+            .orderBy("date", Query.Direction.ASCENDING)
+            .build();
+
+    static final List<IndexedQuery<?>> ALL = List.of(RECENT_MEDICAL_RECORDS, RECENT_NOTIFICATIONS,
+            MEDICAL_RECORDS_BY_USER_AND_DATE, MEDICAL_RECORDS_BY_DIAGNOSIS_AND_DATE,
+            MEDICAL_RECORDS_BY_USER_DIAGNOSIS_AND_DATE);
+
+    private FirestoreIndexes() {}
+
+    // Writes firestore.indexes.json, or the path given as the first argument
+    public static void main(String[] args) throws IOException {
+        Path out = Path.of(args.length > 0 ? args[0] : "firestore.indexes.json");
+
+        List<Map<String, Object>> indexes = new ArrayList<>();
+        for (IndexedQuery<?> query : ALL) {
+            Map<String, Object> index = query.index();
+            if (!indexes.contains(index)) {
+                indexes.add(index);
+            }
+        }
+        Map<String, Object> file = new LinkedHashMap<>();
+        file.put("indexes", indexes);
+        file.put("fieldOverrides", List.of());
+
+        Files.writeString(out, new ObjectMapper().writerWithDefaultPrettyPrinter().writeValueAsString(file) + "\n");
+        log.info("Wrote {} indexes to {}", indexes.size(), out.toAbsolutePath());
+    }
+}
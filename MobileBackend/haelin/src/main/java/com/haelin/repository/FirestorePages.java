@@ -0,0 +1,102 @@
+package com.haelin.repository;
+
+import com.google.cloud.firestore.CollectionReference;
+import com.google.cloud.firestore.FieldPath;
+import com.google.cloud.firestore.Query;
+import com.google.cloud.firestore.QueryDocumentSnapshot;
+import com.haelin.firebase.FirestoreMetrics;
+import com.haelin.model.Page;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Keyset pagination over Firestore queries, ordered by document ID.
+ *
+ * Page tokens are the last document ID of the previous page, base64url-encoded so clients
+ * treat them as opaque. Each page is a startAfter(lastId).limit(n) query, so reading page k
+ * costs the same as reading page 1. Page reads are recorded under the calling service method.
+ */
+public final class FirestorePages {
+
+    public static final int DEFAULT_PAGE_SIZE = 50;
+    public static final int MAX_PAGE_SIZE = 500;
+
+    @FunctionalInterface
+    public interface DocumentHandler<T> {
+        void handle(T item) throws IOException;
+    }
+
+    private FirestorePages() {}
+
+    public static <T> Page<T> fetch(String method, CollectionReference collection, Class<T> type,
+                                    Integer limit, String pageToken)
+            throws ExecutionException, InterruptedException {
+        int size = pageSize(limit);
+
+        Query page = collection.orderBy(FieldPath.documentId()).limit(size);
+        if (pageToken != null && !pageToken.isBlank()) {
+            page = page.startAfter(decode(pageToken));
+        }
+
+        List<QueryDocumentSnapshot> docs = FirestoreMetrics.get(method, collection.getId(), page.get()).getDocuments();
+        List<T> items = new ArrayList<>(docs.size());
+        for (QueryDocumentSnapshot doc : docs) {
+            items.add(doc.toObject(type));
+        }
+
+        // A short page means there is nothing after it
+        String next = docs.size() == size ? encode(docs.get(docs.size() - 1).getId()) : null;
+        return new Page<>(items, next);
+    }
+
+    // The requested page size, defaulted and capped
+    public static int pageSize(Integer limit) {
+        return limit == null ? DEFAULT_PAGE_SIZE : Math.max(1, Math.min(limit, MAX_PAGE_SIZE));
+    }
+
+    // Walks the whole query one page at a time, handing each document over as soon as it is decoded
+    public static <T> void forEach(String method, CollectionReference collection, Class<T> type,
+                                   DocumentHandler<T> handler)
+            throws ExecutionException, InterruptedException, IOException {
+        forEachSnapshot(method, collection, doc -> handler.handle(doc.toObject(type)));
+    }
+
+    // The same walk over the raw snapshots, for callers that need IDs, create times or absent fields
+    public static void forEachSnapshot(String method, CollectionReference collection,
+                                       DocumentHandler<QueryDocumentSnapshot> handler)
+            throws ExecutionException, InterruptedException, IOException {
+        Query ordered = collection.orderBy(FieldPath.documentId()).limit(MAX_PAGE_SIZE);
+        String lastId = null;
+
+        while (true) {
+            Query page = lastId == null ? ordered : ordered.startAfter(lastId);
+            List<QueryDocumentSnapshot> docs = FirestoreMetrics.get(method, collection.getId(), page.get()).getDocuments();
+            for (QueryDocumentSnapshot doc : docs) {
+                handler.handle(doc);
+            }
+            if (docs.size() < MAX_PAGE_SIZE) {
+                return;
+            }
+            lastId = docs.get(docs.size() - 1).getId();
+        }
+    }
+
+    private static String encode(String documentId) {
+        return Base64.getUrlEncoder().withoutPadding()
+                .encodeToString(documentId.getBytes(StandardCharsets.UTF_8));
+    }
+
+    // A token the client made up or mangled is its error; ApiExceptionHandler answers 400 rather than 500
+    private static String decode(String pageToken) {
+        try {
+            return new String(Base64.getUrlDecoder().decode(pageToken), StandardCharsets.UTF_8);
+        } catch (IllegalArgumentException e) {
+            throw new InvalidPageTokenException("Invalid page token", e);
+        }
+    }
+}
@@ -0,0 +1,229 @@
+package com.haelin.repository;
+
+import com.google.api.gax.rpc.ApiException;
+import com.google.api.gax.rpc.StatusCode;
+import com.google.cloud.firestore.Firestore;
+import com.google.cloud.firestore.Query;
+import com.google.cloud.firestore.QueryDocumentSnapshot;
+import com.haelin.firebase.FirestoreMetrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A Firestore query shape declared once: equality filters, one ordering and the fields to read.
+ * Running it reads only the first n documents in that order, and only the selected fields.
+ *
+ * Equality filters on some fields plus an ordering on another need a composite index. That index
+ * is derived from the declaration, so it cannot drift from the query; {@link FirestoreIndexes}
+ * writes all of them to firestore.indexes.json. If the index has not been deployed yet, Firestore
+ * refuses the query. The query then falls back to the unordered match, sorted and cut in memory,
+ * and logs a warning.
+ */
+public final class IndexedQuery<T> {
+
+    private static final Logger log = LoggerFactory.getLogger(IndexedQuery.class);
+
+    private final String collection;
+    private final Class<T> type;
+    private final List<String> equalityFields;
+    private final String orderField;
+    private final Query.Direction direction;
+    private final String[] selectFields;
+
+    // Warn once per query, not on every request, while its index is missing
+    private final AtomicBoolean warnedMissingIndex = new AtomicBoolean();
+
+    private IndexedQuery(Builder<T> builder) {
+        this.collection = builder.collection;
+        this.type = builder.type;
+        this.equalityFields = List.copyOf(builder.equalityFields);
+        this.orderField = builder.orderField;
+        this.direction = builder.direction;
+        if (builder.selectFields.isEmpty()) {
+            this.selectFields = null;
+        } else {
+            // The order field is always read: the fallback sorts and checks on it
+            Set<String> fields = new LinkedHashSet<>(builder.selectFields);
+            fields.add(orderField);
+            this.selectFields = fields.toArray(new String[0]);
+        }
+    }
+
+    public static <T> Builder<T> on(String collection, Class<T> type) {
+        return new Builder<>(collection, type);
+    }
+
+    public static final class Builder<T> {
+        private final String collection;
+        private final Class<T> type;
+        private final List<String> equalityFields = new ArrayList<>();
+        private final List<String> selectFields = new ArrayList<>();
+        private String orderField;
+        private Query.Direction direction = Query.Direction.ASCENDING;
+
+        private Builder(String collection, Class<T> type) {
+            this.collection = collection;
+            this.type = type;
+        }
+
+        public Builder<T> whereEqualTo(String field) {
+            equalityFields.add(field);
+            return this;
+        }
+
+        public Builder<T> orderBy(String field, Query.Direction direction) {
+            this.orderField = field;
+            this.direction = direction;
+            return this;
+        }
+
+        // Only these fields are read; the rest are left null on the decoded objects
+        public Builder<T> select(String... fields) {
+            selectFields.addAll(List.of(fields));
+            return this;
+        }
+
+        public IndexedQuery<T> build() {
+            if (orderField == null) {
+                throw new IllegalStateException("An indexed query needs an orderBy");
+            }
+            return new IndexedQuery<>(this);
+        }
+    }
+
+    // The first `limit` documents in order whose equality fields equal `values`, given in declaration order
+    public List<T> fetch(String method, Firestore db, int limit, Object... values)
+            throws ExecutionException, InterruptedException {
+        Query matching = matching(db, values);
+
+        List<QueryDocumentSnapshot> docs;
+        try {
+            docs = FirestoreMetrics.get(method, collection,
+                    matching.orderBy(orderField, direction).limit(limit).get()).getDocuments();
+        } catch (ExecutionException e) {
+            if (!isMissingIndex(e)) {
+                throw e;
+            }
+            if (warnedMissingIndex.compareAndSet(false, true)) {
+                log.warn("{} needs the composite index {}; deploy firestore.indexes.json (see FirestoreIndexes)",
+                        method, index(), e);
+            }
+            return decode(inMemory(FirestoreMetrics.get(method, collection, matching.get()).getDocuments(), limit));
+        }
+        return decode(docs);
+    }
+
+    // Every document whose equality fields equal `values` and whose order field lies between from and
+    // to (inclusive; either may be null for no bound), in order
+    public List<T> fetchRange(String method, Firestore db, Object from, Object to, Object... values)
+            throws ExecutionException, InterruptedException {
+        Query matching = matching(db, values);
+        Query ranged = matching.orderBy(orderField, direction);
+        if (from != null) ranged = ranged.whereGreaterThanOrEqualTo(orderField, from);
+        if (to != null) ranged = ranged.whereLessThanOrEqualTo(orderField, to);
+
+        try {
+            return decode(FirestoreMetrics.get(method, collection, ranged.get()).getDocuments());
+        } catch (ExecutionException e) {
+            if (!isMissingIndex(e)) {
+                throw e;
+            }
+            if (warnedMissingIndex.compareAndSet(false, true)) {
+                log.warn("{} needs the composite index {}; deploy firestore.indexes.json (see FirestoreIndexes)",
+                        method, index(), e);
+            }
+            List<QueryDocumentSnapshot> inRange = new ArrayList<>();
+            for (QueryDocumentSnapshot doc : FirestoreMetrics.get(method, collection, matching.get()).getDocuments()) {
+                if (doc.contains(orderField) && within(doc.get(orderField), from, to)) {
+                    inRange.add(doc);
+                }
+            }
+            return decode(inMemory(inRange, inRange.size()));
+        }
+    }
+
+    private Query matching(Firestore db, Object... values) {
+        if (values.length != equalityFields.size()) {
+            throw new IllegalArgumentException("Expected values for " + equalityFields);
+        }
+        Query matching = db.collection(collection);
+        for (int i = 0; i < values.length; i++) {
+            matching = matching.whereEqualTo(equalityFields.get(i), values[i]);
+        }
+        if (selectFields != null) {
+            matching = matching.select(selectFields);
+        }
+        return matching;
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static boolean within(Object value, Object from, Object to) {
+        if (!(value instanceof Comparable comparable)) {
+            return false;
+        }
+        return (from == null || comparable.compareTo(from) >= 0) && (to == null || comparable.compareTo(to) <= 0);
+    }
+
+    // The firestore.indexes.json entry this query needs
+    Map<String, Object> index() {
+        List<Map<String, Object>> fields = new ArrayList<>();
+        for (String field : equalityFields) {
+            fields.add(indexField(field, Query.Direction.ASCENDING));
+        }
+        fields.add(indexField(orderField, direction));
+
+        Map<String, Object> index = new LinkedHashMap<>();
+        index.put("collectionGroup", collection);
+        index.put("queryScope", "COLLECTION");
+        index.put("fields", fields);
+        return index;
+    }
+
+    private static Map<String, Object> indexField(String field, Query.Direction direction) {
+        Map<String, Object> entry = new LinkedHashMap<>();
+        entry.put("fieldPath", field);
+        entry.put("order", direction == Query.Direction.ASCENDING ? "ASCENDING" : "DESCENDING");
+        return entry;
+    }
+
+    // Same result as the indexed query: documents lacking the order field are left out
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private List<QueryDocumentSnapshot> inMemory(List<QueryDocumentSnapshot> docs, int limit) {
+        Comparator<Comparable> values = direction == Query.Direction.ASCENDING
+                ? Comparator.naturalOrder()
+                : Comparator.reverseOrder();
+        List<QueryDocumentSnapshot> sorted = new ArrayList<>();
+        for (QueryDocumentSnapshot doc : docs) {
+            if (doc.contains(orderField)) {
+                sorted.add(doc);
+            }
+        }
+        sorted.sort(Comparator.comparing(doc -> (Comparable) doc.get(orderField),
+                Comparator.nullsLast(values)));
+        return sorted.subList(0, Math.min(limit, sorted.size()));
+    }
+
+    private List<T> decode(List<QueryDocumentSnapshot> docs) {
+        List<T> items = new ArrayList<>(docs.size());
+        for (QueryDocumentSnapshot doc : docs) {
+            items.add(doc.toObject(type));
+        }
+        return items;
+    }
+
+    // Firestore answers FAILED_PRECONDITION ("The query requires an index") for an undeployed index
+    private static boolean isMissingIndex(ExecutionException e) {
+        return e.getCause() instanceof ApiException api
+                && api.getStatusCode().getCode() == StatusCode.Code.FAILED_PRECONDITION;
+    }
+}
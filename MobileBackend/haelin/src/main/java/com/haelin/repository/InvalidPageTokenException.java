@@ -0,0 +1,9 @@
+package com.haelin.repository;
+
+// A page token that was not issued by FirestorePages (made up or mangled by the client)
+public class InvalidPageTokenException extends IllegalArgumentException {
+
+    public InvalidPageTokenException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
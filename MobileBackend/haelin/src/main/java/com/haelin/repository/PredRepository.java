@@ -1,26 +1,59 @@
 package com.haelin.repository;
 
+import com.google.api.core.ApiFuture;
+import com.google.api.core.ApiFutures;
 import com.google.cloud.firestore.Firestore;
+import com.google.cloud.firestore.WriteBatch;
+import com.google.cloud.firestore.WriteResult;
+import com.haelin.firebase.FirestoreMetrics;
 import com.haelin.model.Prediction;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Repository;
 
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.ExecutionException;
 
 @Repository
 public class PredRepository {
     private final Firestore firestore;
+    private final WriteBehindQueue writeBehind;
 
     @Autowired
-    public PredRepository(Firestore firestore) {
+    public PredRepository(Firestore firestore, WriteBehindQueue writeBehind) {
         this.firestore = firestore;
+        this.writeBehind = writeBehind;
     }
 
-    public void savePredictionWithId(String id, Prediction prediction) throws ExecutionException, InterruptedException {
-        // The .get() ensures the operation completes (writes) before returning.
-        firestore.collection("predictions")
-                .document(id)
-                .set(prediction)
-                .get();
+    public void savePredictionWithId(String id, Prediction prediction)
+            throws ExecutionException, InterruptedException, IOException {
+        // With write-behind on, journaled is enough; Firestore is written in the background
+        if (writeBehind.offer("predictions", id, prediction)) {
+            return;
+        }
+
+        // Waiting ensures the operation completes (writes) before returning.
+        FirestoreMetrics.get("PredRepository.savePredictionWithId", "predictions",
+                firestore.collection("predictions").document(id).set(prediction));
+    }
+
+    // Writes every prediction (keyed by its predID) in one WriteBatch; at most 500 per call.
+    // With write-behind on, the batch is journaled instead and the future completes at once, with no results.
+    public ApiFuture<List<WriteResult>> savePredictions(List<Prediction> predictions) throws IOException {
+        Map<String, Prediction> byId = new LinkedHashMap<>();
+        for (Prediction prediction : predictions) {
+            byId.put(prediction.getPredID(), prediction);
+        }
+        if (writeBehind.offerAll("predictions", byId)) {
+            return ApiFutures.immediateFuture(List.of());
+        }
+
+        WriteBatch batch = firestore.batch();
+        for (Prediction prediction : predictions) {
+            batch.set(firestore.collection("predictions").document(prediction.getPredID()), prediction);
+        }
+        return FirestoreMetrics.observe("PredRepository.savePredictions", "predictions", batch.commit());
     }
 }
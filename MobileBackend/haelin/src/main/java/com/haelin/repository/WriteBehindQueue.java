@@ -0,0 +1,447 @@
+package com.haelin.repository;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.google.api.gax.rpc.ApiException;
+import com.google.api.gax.rpc.StatusCode;
+import com.google.cloud.firestore.Firestore;
+import com.google.cloud.firestore.WriteBatch;
+import com.haelin.firebase.FirestoreMetrics;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Optional write-behind for document creates (haelin.write-behind.enabled).
+ *
+ * offer() appends the write to a local journal and queues it in memory, then returns, so the
+ * caller does not wait for Firestore. A single flusher thread commits queued writes in
+ * WriteBatches of up to 500. After each commit it appends an ack line to the journal. At startup,
+ * every journaled write after the last ack is replayed before new writes are accepted. Writes are
+ * sets on explicit document IDs, so replaying one that already landed is harmless.
+ *
+ * offerAll() journals a group of writes (a prediction batch) with one fsync, all or none.
+ * Writers append under a lock and then wait for an fsync outside it: one force() covers every
+ * line appended before it started, so concurrent writers share it (group commit). Both are
+ * ReentrantLocks, so virtual threads waiting on the disk do not pin their carriers.
+ *
+ * Only transient Firestore errors are retried. A write that fails for good (invalid, too large,
+ * denied) is split out of its batch and appended to a dead-letter file next to the journal
+ * (haelin.write_behind.dead_lettered counts them), so it cannot wedge the flusher.
+ *
+ * When write-behind is disabled or the queue is full, offer() returns false and the caller
+ * writes synchronously as before.
+ */
+@Component
+public class WriteBehindQueue implements DisposableBean {
+
+    private static final int MAX_BATCH = 500;
+    private static final String MODEL_PACKAGE = "com.haelin.model.";
+
+    private static final Logger log = LoggerFactory.getLogger(WriteBehindQueue.class);
+
+    // Failures worth retrying; anything else will fail the same way every time
+    private static final Set<StatusCode.Code> TRANSIENT = EnumSet.of(StatusCode.Code.UNAVAILABLE,
+            StatusCode.Code.DEADLINE_EXCEEDED, StatusCode.Code.ABORTED, StatusCode.Code.RESOURCE_EXHAUSTED,
+            StatusCode.Code.INTERNAL, StatusCode.Code.UNKNOWN, StatusCode.Code.CANCELLED,
+            StatusCode.Code.UNAUTHENTICATED);
+
+    // A commit that failed with a non-transient error
+    private static final class PermanentFailure extends Exception {
+        private PermanentFailure(Throwable cause) {
+            super(cause);
+        }
+    }
+
+    private static final class Write {
+        private final long seq;
+        private final String collection;
+        private final String id;
+        private final Object document;
+
+        private Write(long seq, String collection, String id, Object document) {
+            this.seq = seq;
+            this.collection = collection;
+            this.id = id;
+            this.document = document;
+        }
+    }
+
+    private final Firestore firestore;
+    private final ObjectMapper objectMapper;
+    private final boolean enabled;
+    private final boolean fsync;
+    private final long compactBytes;
+    private final Path journalPath;
+    private final Path deadLetterPath;
+
+    private BlockingQueue<Write> queue;
+    private FileChannel journal;
+    private Thread flusher;
+    private Counter deadLettered;
+    private long nextSeq = 1;           // guarded by appendLock
+    private volatile boolean running;
+
+    // Appends, sequence numbers and truncation; held only while writing to the page cache
+    private final ReentrantLock appendLock = new ReentrantLock();
+    // One force() at a time; writers that queue behind it usually find their lines already synced
+    private final ReentrantLock syncLock = new ReentrantLock();
+    private volatile long appendedSeq;  // last seq written to the journal
+    private volatile long syncedSeq;    // last seq known to be on disk
+
+    @Autowired
+    public WriteBehindQueue(Firestore firestore, ObjectMapper objectMapper, MeterRegistry meterRegistry,
+                            @Value("${haelin.write-behind.enabled:false}") boolean enabled,
+                            @Value("${haelin.write-behind.journal:data/write-behind.journal}") String journal,
+                            @Value("${haelin.write-behind.queue-capacity:10000}") int capacity,
+                            @Value("${haelin.write-behind.fsync:true}") boolean fsync,
+                            @Value("${haelin.write-behind.compact-bytes:16777216}") long compactBytes)
+            throws IOException {
+        this.firestore = firestore;
+        this.objectMapper = objectMapper;
+        this.enabled = enabled;
+        this.fsync = fsync;
+        this.compactBytes = compactBytes;
+        this.journalPath = Path.of(journal);
+        this.deadLetterPath = journalPath.resolveSibling(journalPath.getFileName() + ".dead");
+        if (!enabled) {
+            return;
+        }
+
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        Gauge.builder("haelin.write_behind.pending", queue, BlockingQueue::size).register(meterRegistry);
+        this.deadLettered = Counter.builder("haelin.write_behind.dead_lettered").register(meterRegistry);
+
+        if (journalPath.getParent() != null) {
+            Files.createDirectories(journalPath.getParent());
+        }
+        replay();
+        this.journal = FileChannel.open(journalPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+
+        this.running = true;
+        this.flusher = new Thread(this::flushLoop, "write-behind-flusher");
+        this.flusher.setDaemon(true);
+        this.flusher.start();
+        log.info("Write-behind enabled, journal at {}", journalPath.toAbsolutePath());
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    // True once the write is journaled and queued; false means the caller must write it itself
+    public boolean offer(String collection, String id, Object document) throws IOException {
+        return offerAll(collection, Map.of(id, document));
+    }
+
+    // All or nothing: true once every document (by ID) is journaled and queued, with one fsync for the lot
+    public boolean offerAll(String collection, Map<String, ?> documents) throws IOException {
+        long last;
+        appendLock.lock();
+        try {
+            if (!running || queue.remainingCapacity() < documents.size()) {
+                return false;
+            }
+            List<Write> writes = new ArrayList<>(documents.size());
+            for (Map.Entry<String, ?> entry : documents.entrySet()) {
+                Write write = new Write(nextSeq++, collection, entry.getKey(), entry.getValue());
+
+                ObjectNode line = objectMapper.createObjectNode();
+                line.put("seq", write.seq);
+                line.put("collection", collection);
+                line.put("id", write.id);
+                line.put("type", write.document.getClass().getName());
+                line.set("doc", objectMapper.valueToTree(write.document));
+                write(line);
+                writes.add(write);
+            }
+            last = writes.get(writes.size() - 1).seq;
+            appendedSeq = last;
+
+            // Queued under the same lock that checked the capacity, so this always fits. The flusher may
+            // commit them before they are synced; that is harmless, only the caller waits for the sync.
+            queue.addAll(writes);
+        } finally {
+            appendLock.unlock();
+        }
+        syncThrough(last);
+        return true;
+    }
+
+    // Returns once the journal is on disk up to seq, forcing it only if no other writer's force covered it
+    private void syncThrough(long seq) throws IOException {
+        if (!fsync) {
+            return;
+        }
+        syncLock.lock();
+        try {
+            if (syncedSeq >= seq) {
+                return;
+            }
+            long target = appendedSeq;
+            journal.force(false);
+            syncedSeq = target;
+        } finally {
+            syncLock.unlock();
+        }
+    }
+
+    private void flushLoop() {
+        List<Write> batch = new ArrayList<>(MAX_BATCH);
+        while (running || !queue.isEmpty()) {
+            try {
+                Write first = queue.poll(1, TimeUnit.SECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                queue.drainTo(batch, MAX_BATCH - 1);
+
+                commitWithRetry(batch);
+                acknowledge(batch.get(batch.size() - 1).seq);
+                batch.clear();
+            } catch (InterruptedException e) {
+                // Only destroy() interrupts; whatever is unacknowledged is replayed on next start
+                Thread.currentThread().interrupt();
+                break;
+            } catch (IOException e) {
+                log.error("Could not write to the write-behind journal {}", journalPath, e);
+                batch.clear();
+            }
+        }
+    }
+
+    // Transient failures are retried with backoff; dropping them would lose acknowledged writes. A batch
+    // that fails for good is retried one write at a time, and only the writes that still fail are set aside.
+    private void commitWithRetry(List<Write> batch) throws InterruptedException {
+        try {
+            commitRetrying(batch);
+        } catch (PermanentFailure e) {
+            if (batch.size() == 1) {
+                deadLetter(batch.get(0), e.getCause());
+                return;
+            }
+            log.warn("Write-behind batch of {} failed permanently; committing its writes one by one",
+                    batch.size(), e.getCause());
+            for (Write write : batch) {
+                try {
+                    commitRetrying(List.of(write));
+                } catch (PermanentFailure failure) {
+                    deadLetter(write, failure.getCause());
+                }
+            }
+        }
+    }
+
+    private void commitRetrying(List<Write> writes) throws InterruptedException, PermanentFailure {
+        long backoffMs = 100;
+        while (true) {
+            try {
+                commit(writes);
+                return;
+            } catch (InterruptedException e) {
+                throw e;
+            } catch (Exception e) {
+                if (!isTransient(e)) {
+                    throw new PermanentFailure(e);
+                }
+                log.warn("Write-behind batch of {} failed, retrying in {} ms", writes.size(), backoffMs, e);
+                Thread.sleep(backoffMs);
+                backoffMs = Math.min(backoffMs * 2, 30_000);
+            }
+        }
+    }
+
+    private static boolean isTransient(Exception e) {
+        Throwable cause = e instanceof ExecutionException && e.getCause() != null ? e.getCause() : e;
+        if (cause instanceof ApiException api) {
+            return TRANSIENT.contains(api.getStatusCode().getCode());
+        }
+        // Rejected while building the batch (a document Firestore cannot encode)
+        return !(cause instanceof IllegalArgumentException);
+    }
+
+    // Keeps the write, with why it failed, for someone to fix and re-import; it is acknowledged after this
+    private void deadLetter(Write write, Throwable error) {
+        deadLettered.increment();
+        String text = null;
+        try {
+            ObjectNode line = objectMapper.createObjectNode();
+            line.put("seq", write.seq);
+            line.put("collection", write.collection);
+            line.put("id", write.id);
+            line.put("type", write.document.getClass().getName());
+            line.set("doc", objectMapper.valueToTree(write.document));
+            line.put("error", String.valueOf(error));
+            text = objectMapper.writeValueAsString(line) + "\n";
+            Files.writeString(deadLetterPath, text, StandardCharsets.UTF_8,
+                    StandardOpenOption.CREATE, StandardOpenOption.APPEND, StandardOpenOption.SYNC);
+            log.error("Write-behind write {}/{} failed permanently; moved to {}", write.collection, write.id,
+                    deadLetterPath, error);
+        } catch (IOException | RuntimeException e) {
+            log.error("Write-behind write {}/{} failed permanently and could not be dead-lettered: {}",
+                    write.collection, write.id, text, error);
+        }
+    }
+
+    private void commit(List<Write> writes) throws Exception {
+        WriteBatch batch = firestore.batch();
+        String collection = writes.get(0).collection;
+        for (Write write : writes) {
+            batch.set(firestore.collection(write.collection).document(write.id), write.document);
+            if (!write.collection.equals(collection)) collection = "mixed";
+        }
+        FirestoreMetrics.get("WriteBehindQueue.commit", collection, batch.commit());
+    }
+
+    // Everything up to seq is in Firestore; once nothing is pending the journal can start over.
+    // The ack is not forced: if it is lost, the acknowledged writes are replayed, which is harmless.
+    private void acknowledge(long seq) throws IOException {
+        appendLock.lock();
+        try {
+            if (queue.isEmpty() && journal.size() > compactBytes) {
+                journal.truncate(0);
+                return;
+            }
+            ObjectNode line = objectMapper.createObjectNode();
+            line.put("ack", seq);
+            write(line);
+        } finally {
+            appendLock.unlock();
+        }
+    }
+
+    private void write(ObjectNode line) throws IOException {
+        ByteBuffer bytes = ByteBuffer.wrap((objectMapper.writeValueAsString(line) + "\n").getBytes(StandardCharsets.UTF_8));
+        while (bytes.hasRemaining()) {
+            journal.write(bytes);
+        }
+    }
+
+    // Commits every journaled write that was never acknowledged, before new writes are accepted
+    private void replay() throws IOException {
+        if (!Files.exists(journalPath)) {
+            return;
+        }
+
+        Map<Long, Write> pending = new LinkedHashMap<>();
+        try (BufferedReader reader = Files.newBufferedReader(journalPath, StandardCharsets.UTF_8)) {
+            String text;
+            while ((text = reader.readLine()) != null) {
+                JsonNode line;
+                try {
+                    line = objectMapper.readTree(text);
+                } catch (IOException e) {
+                    // A torn last line from a crash mid-append; that write was never acknowledged to anyone
+                    log.warn("Skipping unreadable write-behind journal line");
+                    continue;
+                }
+                if (line.has("ack")) {
+                    long ack = line.get("ack").asLong();
+                    pending.keySet().removeIf(seq -> seq <= ack);
+                } else {
+                    pending.put(line.get("seq").asLong(), toWrite(line));
+                }
+            }
+        }
+
+        if (!pending.isEmpty()) {
+            log.info("Replaying {} journaled writes", pending.size());
+            List<Write> writes = new ArrayList<>(pending.values());
+            for (int i = 0; i < writes.size(); i += MAX_BATCH) {
+                replay(writes.subList(i, Math.min(i + MAX_BATCH, writes.size())));
+            }
+        }
+    }
+
+    // Writes that fail for good are dead-lettered as in the flusher; a transient failure stops startup
+    // and leaves the journal untouched, so the next start tries again
+    private void replay(List<Write> writes) throws IOException {
+        try {
+            commit(writes);
+            return;
+        } catch (Exception e) {
+            if (isTransient(e)) {
+                throw new IOException("Could not replay write-behind journal " + journalPath, e);
+            }
+        }
+        for (Write write : writes) {
+            try {
+                commit(List.of(write));
+            } catch (Exception e) {
+                if (isTransient(e)) {
+                    throw new IOException("Could not replay write-behind journal " + journalPath, e);
+                }
+                deadLetter(write, e);
+            }
+        }
+    }
+
+    private Write toWrite(JsonNode line) throws IOException {
+        String type = line.get("type").asText();
+        if (!type.startsWith(MODEL_PACKAGE)) {
+            throw new IOException("Unexpected document type in write-behind journal: " + type);
+        }
+        try {
+            Object document = objectMapper.treeToValue(line.get("doc"), Class.forName(type));
+            return new Write(line.get("seq").asLong(), line.get("collection").asText(), line.get("id").asText(), document);
+        } catch (ClassNotFoundException e) {
+            throw new IOException("Unknown document type in write-behind journal: " + type, e);
+        }
+    }
+
+    // Stops accepting writes and flushes what is queued; anything left is replayed on next start
+    @Override
+    public void destroy() throws Exception {
+        if (!enabled) {
+            return;
+        }
+        appendLock.lock();
+        try {
+            running = false;
+        } finally {
+            appendLock.unlock();
+        }
+        flusher.join(TimeUnit.SECONDS.toMillis(30));
+        if (flusher.isAlive()) {
+            log.warn("Write-behind flusher still busy at shutdown; {} writes left in the journal", queue.size());
+            flusher.interrupt();
+        }
+        appendLock.lock();
+        syncLock.lock();
+        try {
+            journal.close();
+        } finally {
+            syncLock.unlock();
+            appendLock.unlock();
+        }
+    }
+}
@@ -1,11 +1,28 @@
 package com.haelin.service;
 
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.LoadingCache;
 import com.google.api.core.ApiFuture;
+import com.google.api.core.ApiFutures;
 import com.google.cloud.firestore.*;
+import com.google.common.util.concurrent.MoreExecutors;
 import com.google.firebase.cloud.FirestoreClient;
+import com.haelin.firebase.FirestoreMetrics;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ExecutionException;
 
 @Service
@@ -13,32 +30,146 @@ public class DashboardService {
 
     private static final String USER_COLLECTION = "users";
     private static final String RECORD_COLLECTION = "medical_records";
+    private static final String DENGUE = "Dengue";
+    private static final String CHIKUNGUNYA = "Chikungunya";
+    private static final String STATS_KEY = "stats";
+
+    private final StatsCounterService statsCounterService;
+
+    // Single-entry cache: concurrent pollers within the TTL share one load
+    private final LoadingCache<String, Map<String, Object>> statsCache;
+
+    @Autowired
+    public DashboardService(StatsCounterService statsCounterService, MeterRegistry meterRegistry,
+                            @Value("${haelin.dashboard.cache-ttl-ms:5000}") long cacheTtlMs) {
+        this.statsCounterService = statsCounterService;
+        this.statsCache = Caffeine.newBuilder()
+                .expireAfterWrite(Duration.ofMillis(cacheTtlMs))
+                .recordStats()
+                .build(key -> loadStats());
+        CaffeineCacheMetrics.monitor(meterRegistry, statsCache, "dashboardStats");
+    }
+
+    // Stats for the admin dashboard
+    public Map<String, Object> getStats() throws ExecutionException, InterruptedException {
+        try {
+            return statsCache.get(STATS_KEY);
+        } catch (CompletionException e) {
+            throw new ExecutionException(e.getCause());
+        }
+    }
+
+    // Served from the running counters (one document read); falls back to live counts until they exist
+    private Map<String, Object> loadStats() throws ExecutionException, InterruptedException {
+        DocumentSnapshot counters = statsCounterService.read();
+        if (counters == null) {
+            Map<String, Long> diagnoses = countDiagnoses(List.of(DENGUE, CHIKUNGUNYA));
+            long[] totals = countTotals();
+            statsCounterService.overwrite(totals[0], totals[1], diagnoses);
+            return toStats(totals[0], totals[1], diagnoses.get(DENGUE), diagnoses.get(CHIKUNGUNYA));
+        }
+
+        return toStats(longValue(counters, FieldPath.of(StatsCounterService.USERS_FIELD)),
+                longValue(counters, FieldPath.of(StatsCounterService.CASES_FIELD)),
+                longValue(counters, FieldPath.of(StatsCounterService.DIAGNOSES_FIELD, DENGUE)),
+                longValue(counters, FieldPath.of(StatsCounterService.DIAGNOSES_FIELD, CHIKUNGUNYA)));
+    }
+
+    // Recount everything server-side and correct any drift in the running counters
+    @Scheduled(initialDelayString = "${haelin.dashboard.reconcile-interval-ms:900000}",
+            fixedDelayString = "${haelin.dashboard.reconcile-interval-ms:900000}")
+    public void reconcileCounters() throws ExecutionException, InterruptedException {
+        Set<String> diagnoses = new LinkedHashSet<>();
+        diagnoses.add(DENGUE);
+        diagnoses.add(CHIKUNGUNYA);
+
+        DocumentSnapshot counters = statsCounterService.read();
+        if (counters != null && counters.get(StatsCounterService.DIAGNOSES_FIELD) instanceof Map<?, ?> known) {
+            for (Object key : known.keySet()) {
+                diagnoses.add(key.toString());
+            }
+        }
+
+        Map<String, Long> diagnosisCounts = countDiagnoses(diagnoses);
+        long[] totals = countTotals();
+        statsCounterService.overwrite(totals[0], totals[1], diagnosisCounts);
+        statsCache.invalidate(STATS_KEY);
+    }
+
+    // The counts below use Firestore's count() aggregation, so no documents are downloaded
 
     public long getUserCount() throws ExecutionException, InterruptedException {
-        Firestore db = FirestoreClient.getFirestore();
-        ApiFuture<QuerySnapshot> query = db.collection(USER_COLLECTION).get();
-        return query.get().size();
+        return count("DashboardService.getUserCount", USER_COLLECTION, userQuery()).get();
     }
 
     public long getTotalCases() throws ExecutionException, InterruptedException {
-        Firestore db = FirestoreClient.getFirestore();
-        ApiFuture<QuerySnapshot> query = db.collection(RECORD_COLLECTION).get();
-        return query.get().size();
+        return count("DashboardService.getTotalCases", RECORD_COLLECTION, recordQuery()).get();
     }
 
     public long getDengueCases() throws ExecutionException, InterruptedException {
-        Firestore db = FirestoreClient.getFirestore();
-        ApiFuture<QuerySnapshot> query = db.collection(RECORD_COLLECTION)
-                .whereEqualTo("diagnosis", "Dengue")
-                .get();
-        return query.get().size();
+        return count("DashboardService.getDengueCases", RECORD_COLLECTION,
+                recordQuery().whereEqualTo("diagnosis", DENGUE)).get();
     }
 
     public long getChikungunyaCases() throws ExecutionException, InterruptedException {
+        return count("DashboardService.getChikungunyaCases", RECORD_COLLECTION,
+                recordQuery().whereEqualTo("diagnosis", CHIKUNGUNYA)).get();
+    }
+
+    // Users and total cases, counted concurrently
+    private long[] countTotals() throws ExecutionException, InterruptedException {
+        List<Long> totals = ApiFutures.allAsList(List.of(
+                count("DashboardService.countTotals", USER_COLLECTION, userQuery()),
+                count("DashboardService.countTotals", RECORD_COLLECTION, recordQuery()))).get();
+        return new long[]{totals.get(0), totals.get(1)};
+    }
+
+    // One count() per diagnosis, all in flight at the same time
+    private Map<String, Long> countDiagnoses(Iterable<String> diagnoses) throws ExecutionException, InterruptedException {
+        List<String> names = new ArrayList<>();
+        List<ApiFuture<Long>> futures = new ArrayList<>();
+        for (String diagnosis : diagnoses) {
+            names.add(diagnosis);
+            futures.add(count("DashboardService.countDiagnoses", RECORD_COLLECTION,
+                    recordQuery().whereEqualTo("diagnosis", diagnosis)));
+        }
+
+        List<Long> counts = ApiFutures.allAsList(futures).get();
+        Map<String, Long> result = new HashMap<>();
+        for (int i = 0; i < names.size(); i++) {
+            result.put(names.get(i), counts.get(i));
+        }
+        return result;
+    }
+
+    private ApiFuture<Long> count(String method, String collection, Query query) {
+        return ApiFutures.transform(FirestoreMetrics.observe(method, collection, query.count().get()),
+                AggregateQuerySnapshot::getCount,
+                MoreExecutors.directExecutor());
+    }
+
+    private Query userQuery() {
+        Firestore db = FirestoreClient.getFirestore();
+        return db.collection(USER_COLLECTION);
+    }
+
+    private Query recordQuery() {
         Firestore db = FirestoreClient.getFirestore();
-        ApiFuture<QuerySnapshot> query = db.collection(RECORD_COLLECTION)
-                .whereEqualTo("diagnosis", "Chikungunya")
-                .get();
-        return query.get().size();
+        return db.collection(RECORD_COLLECTION);
+    }
+
+    private Map<String, Object> toStats(long users, long totalCases, long dengueCases, long chikungunyaCases) {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("totalUsers", users);
+        stats.put("totalCases", totalCases);
+        stats.put("dengueCases", dengueCases);
+        stats.put("chikungunyaCases", chikungunyaCases);
+        return stats;
+    }
+
+    // getLong has no FieldPath overload, so the field is read raw
+    private long longValue(DocumentSnapshot snapshot, FieldPath field) {
+        Object value = snapshot.get(field);
+        return value instanceof Number number ? number.longValue() : 0;
     }
 }
@@ -0,0 +1,110 @@
+package com.haelin.service;
+
+import com.haelin.model.Hospital;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+// Hospitals inside one grid cell, packed into parallel arrays so radius scans stay cache friendly
+final class HospitalTile {
+
+    // Tile edge in degrees (~11 km of latitude)
+    static final double SIZE_DEG = 0.1;
+
+    private static final double EARTH_RADIUS_M = 6_371_000;
+    private static final int LON_CELLS = (int) Math.ceil(360 / SIZE_DEG);
+
+    private final String[] names;
+    private final double[] lats;
+    private final double[] lons;
+
+    HospitalTile(List<Hospital> hospitals) {
+        int n = hospitals.size();
+        names = new String[n];
+        lats = new double[n];
+        lons = new double[n];
+        for (int i = 0; i < n; i++) {
+            Hospital h = hospitals.get(i);
+            names[i] = h.getName();
+            lats[i] = h.getLat();
+            lons[i] = h.getLon();
+        }
+    }
+
+    int size() {
+        return names.length;
+    }
+
+    // Appends every hospital within radiusM of (lat, lon) to out
+    void collectWithin(double lat, double lon, double radiusM, List<Hit> out) {
+        for (int i = 0; i < names.length; i++) {
+            double d = distanceMeters(lat, lon, lats[i], lons[i]);
+            if (d <= radiusM) {
+                out.add(new Hit(new Hospital(names[i], lats[i], lons[i]), d));
+            }
+        }
+    }
+
+    static long key(int latIndex, int lonIndex) {
+        return (long) latIndex * LON_CELLS + lonIndex;
+    }
+
+    static int latIndex(double lat) {
+        return (int) Math.floor((lat + 90) / SIZE_DEG);
+    }
+
+    static int lonIndex(double lon) {
+        return Math.floorMod((int) Math.floor((lon + 180) / SIZE_DEG), LON_CELLS);
+    }
+
+    // Bounding box of a tile as south,west,north,east for an Overpass bbox filter
+    static String bbox(long key) {
+        int latIndex = (int) (key / LON_CELLS);
+        int lonIndex = (int) (key % LON_CELLS);
+        double south = latIndex * SIZE_DEG - 90;
+        double west = lonIndex * SIZE_DEG - 180;
+        return south + "," + west + "," + (south + SIZE_DEG) + "," + (west + SIZE_DEG);
+    }
+
+    // Keys of every tile overlapping the circle's bounding box
+    static List<Long> covering(double lat, double lon, double radiusM) {
+        double dLat = Math.toDegrees(radiusM / EARTH_RADIUS_M);
+        double cosLat = Math.max(Math.cos(Math.toRadians(lat)), 0.01);
+        double dLon = Math.min(Math.toDegrees(radiusM / (EARTH_RADIUS_M * cosLat)), 180);
+
+        int minLat = latIndex(Math.max(lat - dLat, -90));
+        int maxLat = latIndex(Math.min(lat + dLat, 90 - 1e-9));
+        int minLon = (int) Math.floor((lon - dLon + 180) / SIZE_DEG);
+        int maxLon = (int) Math.floor((lon + dLon + 180) / SIZE_DEG);
+
+        List<Long> keys = new ArrayList<>();
+        for (int la = minLat; la <= maxLat; la++) {
+            for (int lo = minLon; lo <= maxLon; lo++) {
+                keys.add(key(la, Math.floorMod(lo, LON_CELLS)));
+            }
+        }
+        return keys;
+    }
+
+    static double distanceMeters(double lat1, double lon1, double lat2, double lon2) {
+        double dLat = Math.toRadians(lat2 - lat1);
+        double dLon = Math.toRadians(lon2 - lon1);
+        double a = Math.sin(dLat / 2) * Math.sin(dLat / 2)
+                + Math.cos(Math.toRadians(lat1)) * Math.cos(Math.toRadians(lat2))
+                * Math.sin(dLon / 2) * Math.sin(dLon / 2);
+        return 2 * EARTH_RADIUS_M * Math.asin(Math.min(1, Math.sqrt(a)));
+    }
+
+    static final class Hit {
+        static final Comparator<Hit> NEAREST_FIRST = Comparator.comparingDouble(h -> h.distanceM);
+
+        final Hospital hospital;
+        final double distanceM;
+
+        Hit(Hospital hospital, double distanceM) {
+            this.hospital = hospital;
+            this.distanceM = distanceM;
+        }
+    }
+}
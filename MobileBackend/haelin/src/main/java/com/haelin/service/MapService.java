@@ -2,20 +2,122 @@ package com.haelin.service;
 
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.benmanes.caffeine.cache.AsyncLoadingCache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.haelin.http.DownstreamGuard;
+import com.haelin.http.WebClientConfig;
 import com.haelin.model.Hospital;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.publisher.Mono;
 
+import java.time.Duration;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
 @Service
 public class MapService {
 
-    private final WebClient webClient = WebClient.create("https://overpass-api.de/api/interpreter");
+    // Larger searches would touch too many tiles; they go straight to Overpass
+    private static final int MAX_TILES_PER_QUERY = 64;
+
+    private static final Logger log = LoggerFactory.getLogger(MapService.class);
+
+    private final WebClient webClient;
+    private final WebClient hedgeWebClient;
+    private final DownstreamGuard overpassGuard;
+    private final Duration hedgeDelay;
     private final ObjectMapper objectMapper = new ObjectMapper();
 
-    public List<Hospital> getNearbyHospitals(double lat, double lon, int radius) {
+    // Grid tiles of hospitals, loaded from Overpass on first use and refreshed in the background
+    private final AsyncLoadingCache<Long, HospitalTile> tiles;
+
+    @Autowired
+    public MapService(WebClient downstreamWebClient, DownstreamGuard overpassGuard, MeterRegistry meterRegistry,
+                      @Value("${haelin.map.overpass-url:https://overpass-api.de/api/interpreter}") String overpassUrl,
+                      @Value("${haelin.map.hedge-url:}") String hedgeUrl,
+                      @Value("${haelin.map.hedge-delay-ms:0}") long hedgeDelayMs,
+                      @Value("${haelin.map.tile-refresh-minutes:360}") long refreshMinutes,
+                      @Value("${haelin.map.tile-expiry-minutes:1440}") long expiryMinutes,
+                      @Value("${haelin.map.max-tiles:10000}") long maxTiles) {
+        // Same connection pool as every other downstream call, rooted at the Overpass endpoint
+        this.webClient = downstreamWebClient.mutate().baseUrl(overpassUrl).build();
+        this.hedgeWebClient = hedgeUrl.isBlank() ? webClient : downstreamWebClient.mutate().baseUrl(hedgeUrl).build();
+        this.overpassGuard = overpassGuard;
+        // Only ever hedged to a different mirror: re-sending to the same rate-limited server doubles its load
+        boolean mirror = !hedgeUrl.isBlank() && !hedgeUrl.equals(overpassUrl);
+        if (hedgeDelayMs > 0 && !mirror) {
+            log.warn("haelin.map.hedge-delay-ms is set but haelin.map.hedge-url is not a different mirror; hedging is off");
+        }
+        this.hedgeDelay = mirror ? Duration.ofMillis(hedgeDelayMs) : Duration.ZERO;
+        this.tiles = Caffeine.newBuilder()
+                .maximumSize(maxTiles)
+                .refreshAfterWrite(Duration.ofMinutes(refreshMinutes))
+                .expireAfterAccess(Duration.ofMinutes(expiryMinutes))
+                .recordStats()
+                .buildAsync((key, executor) -> fetchTile(key));
+        CaffeineCacheMetrics.monitor(meterRegistry, tiles, "hospitalTiles");
+    }
+
+    public Mono<List<Hospital>> getNearbyHospitals(double lat, double lon, int radius) {
+        List<Long> keys = HospitalTile.covering(lat, lon, radius);
+        if (keys.size() > MAX_TILES_PER_QUERY) {
+            return fetchAround(lat, lon, radius);
+        }
+
+        // Tiles already in memory are answered locally; only missing tiles hit Overpass
+        return Mono.fromFuture(tiles.getAll(keys))
+                .map(loaded -> nearest(loaded, lat, lon, radius))
+                .onErrorResume(e -> fromPresentTiles(keys, lat, lon, radius, e));
+    }
+
+    // Overpass failed or its circuit is open: answer from the tiles still in memory, however old.
+    // Only when none of the area is cached does the caller see the error.
+    private Mono<List<Hospital>> fromPresentTiles(List<Long> keys, double lat, double lon, int radius, Throwable e) {
+        Map<Long, HospitalTile> present = tiles.synchronous().getAllPresent(keys);
+        if (present.isEmpty()) {
+            return Mono.error(e);
+        }
+        log.debug("Overpass unavailable, answering from {} of {} cached tiles", present.size(), keys.size(), e);
+        return Mono.just(nearest(present, lat, lon, radius));
+    }
+
+    private List<Hospital> nearest(Map<Long, HospitalTile> loaded, double lat, double lon, int radius) {
+        List<HospitalTile.Hit> hits = new ArrayList<>();
+        for (HospitalTile tile : loaded.values()) {
+            tile.collectWithin(lat, lon, radius, hits);
+        }
+        hits.sort(HospitalTile.Hit.NEAREST_FIRST);
+
+        List<Hospital> list = new ArrayList<>(hits.size());
+        for (HospitalTile.Hit hit : hits) {
+            list.add(hit.hospital);
+        }
+        return list;
+    }
+
+    private CompletableFuture<HospitalTile> fetchTile(long key) {
+        String query =
+                "[out:json];" +
+                        "node[\"amenity\"=\"hospital\"](" + HospitalTile.bbox(key) + ");" +
+                        "out;";
+
+        // A response that does not parse fails the load, so Caffeine caches nothing (or keeps the old
+        // tile on refresh) instead of an empty tile that would blank the area until it expires
+        return callOverpass(query)
+                .map(json -> new HospitalTile(readHospitals(json)))
+                .toFuture();
+    }
+
+    private Mono<List<Hospital>> fetchAround(double lat, double lon, int radius) {
 
         // Overpass query
         String query =
@@ -23,42 +125,73 @@ public class MapService {
                         "node[\"amenity\"=\"hospital\"](around:" + radius + "," + lat + "," + lon + ");" +
                         "out;";
 
-        // Call Overpass
-        String responseJson = webClient.get()
-                .uri(uriBuilder -> uriBuilder.queryParam("data", query).build())
-                .retrieve()
-                .bodyToMono(String.class)
-                .block();
+        return callOverpass(query).map(this::parseHospitals);
+    }
 
-        return parseHospitals(responseJson);
+    // Overpass queries are read-only, so a slow one is hedged: if no answer has come back within
+    // hedgeDelay, the same query goes to the hedge mirror and the first answer wins.
+    // The loser is cancelled. When the first request fails before then, the hedge still goes out
+    // at hedgeDelay, which makes it a single delayed retry. The pair counts as one guarded call.
+    private Mono<String> callOverpass(String query) {
+        Mono<String> primary = get(webClient, query, "MapService.callOverpass");
+        if (hedgeDelay.isZero()) {
+            return overpassGuard.protect(primary);
+        }
+        Mono<String> hedge = Mono.delay(hedgeDelay)
+                .then(get(hedgeWebClient, query, "MapService.callOverpass.hedge"));
+        return overpassGuard.protect(Mono.firstWithValue(primary, hedge));
     }
 
-    private List<Hospital> parseHospitals(String json) {
-        List<Hospital> list = new ArrayList<>();
+    private static Mono<String> get(WebClient client, String query, String call) {
+        return client.get()
+                .uri(uriBuilder -> uriBuilder.queryParam("data", query).build())
+                .attribute(WebClientConfig.CALL_ATTRIBUTE, call)
+                .retrieve()
+                .bodyToMono(String.class);
+    }
 
+    // Package-private so haelin-benchmarks can time it on its own. Lenient: a bad response is an empty list.
+    List<Hospital> parseHospitals(String json) {
         try {
-            JsonNode root = objectMapper.readTree(json);
-            JsonNode elements = root.get("elements");
-
-            if (elements != null && elements.isArray()) {
-                for (JsonNode node : elements) {
+            return readHospitals(json);
+        } catch (RuntimeException e) {
+            log.warn("Could not parse the Overpass response", e);
+            return new ArrayList<>();
+        }
+    }
 
-                    double lat = node.get("lat").asDouble();
-                    double lon = node.get("lon").asDouble();
+    // Strict: throws for unparsable JSON, a missing elements array, or a remark (Overpass reports
+    // timeouts and out-of-memory that way, alongside an empty or partial element list)
+    private List<Hospital> readHospitals(String json) {
+        JsonNode root;
+        try {
+            root = objectMapper.readTree(json);
+        } catch (Exception e) {
+            throw new IllegalStateException("Unparsable Overpass response", e);
+        }
+        JsonNode elements = root.get("elements");
+        if (elements == null || !elements.isArray()) {
+            throw new IllegalStateException("Overpass response has no elements");
+        }
+        if (root.hasNonNull("remark")) {
+            throw new IllegalStateException("Overpass: " + root.get("remark").asText());
+        }
 
-                    String name = "Unknown Hospital";
-                    if (node.has("tags") && node.get("tags").has("name")) {
-                        name = node.get("tags").get("name").asText();
-                    }
+        List<Hospital> list = new ArrayList<>();
+        for (JsonNode node : elements) {
+            if (!node.has("lat") || !node.has("lon")) {
+                throw new IllegalStateException("Overpass element without coordinates");
+            }
+            double lat = node.get("lat").asDouble();
+            double lon = node.get("lon").asDouble();
 
-                    list.add(new Hospital(name, lat, lon));
-                }
+            String name = "Unknown Hospital";
+            if (node.has("tags") && node.get("tags").has("name")) {
+                name = node.get("tags").get("name").asText();
             }
 
-        } catch (Exception e) {
-            e.printStackTrace();
+            list.add(new Hospital(name, lat, lon));
         }
-
         return list;
     }
 }
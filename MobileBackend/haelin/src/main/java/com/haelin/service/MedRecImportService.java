@@ -0,0 +1,294 @@
+package com.haelin.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.google.api.core.ApiFuture;
+import com.google.api.core.ApiFutureCallback;
+import com.google.api.core.ApiFutures;
+import com.google.cloud.firestore.BulkWriter;
+import com.google.cloud.firestore.BulkWriterOptions;
+import com.google.cloud.firestore.Firestore;
+import com.google.cloud.firestore.WriteBatch;
+import com.google.cloud.firestore.WriteResult;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.haelin.firebase.FirestoreMetrics;
+import com.haelin.id.IdAllocator;
+import com.haelin.id.IdRange;
+import com.haelin.model.ImportProgress;
+import com.haelin.model.MedRec;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bulk import of historical medical records from NDJSON or CSV.
+ *
+ * Rows are parsed straight off the request stream and written through a Firestore BulkWriter.
+ * The BulkWriter ramps its rate up gradually (500/50/5) and retries failed writes. A bound on
+ * in-flight writes stops parsing whenever Firestore falls behind. IDs come from the MR counter
+ * in contiguous blocks that start at 64 and double up to id-block, so a small or aborted import
+ * burns few IDs while a large one still needs only one counter transaction per id-block rows.
+ * The dashboard counters get one merged increment at the end.
+ */
+@Service
+public class MedRecImportService {
+
+    private static final String COLLECTION_NAME = "medical_records";
+
+    // First MR block an import reserves; each later one doubles, up to id-block
+    private static final int FIRST_ID_BLOCK = 64;
+
+    private static final Logger log = LoggerFactory.getLogger(MedRecImportService.class);
+
+    @FunctionalInterface
+    private interface RowSource {
+        // Next parsed record, or null at the end; rows that cannot be parsed are counted and skipped
+        MedRec next(ImportProgress progress) throws IOException;
+    }
+
+    private final Firestore firestore;
+    private final IdAllocator medRecIdAllocator;
+    private final StatsCounterService statsCounterService;
+    private final ObjectMapper objectMapper;
+    private final int idBlock;
+    private final int maxInFlight;
+    private final int maxAttempts;
+    private final BulkWriterOptions writerOptions;
+
+    // Recent imports by job ID, for GET /medrec/import/{jobId}
+    private final Cache<String, ImportProgress> jobs = Caffeine.newBuilder()
+            .maximumSize(100)
+            .expireAfterWrite(Duration.ofDays(1))
+            .build();
+
+    @Autowired
+    public MedRecImportService(Firestore firestore, @Qualifier("medRecIdAllocator") IdAllocator medRecIdAllocator,
+                               StatsCounterService statsCounterService, ObjectMapper objectMapper,
+                               @Value("${haelin.import.id-block:5000}") int idBlock,
+                               @Value("${haelin.import.max-in-flight:5000}") int maxInFlight,
+                               @Value("${haelin.import.max-attempts:10}") int maxAttempts,
+                               @Value("${haelin.import.initial-ops-per-second:500}") int initialOpsPerSecond,
+                               @Value("${haelin.import.max-ops-per-second:10000}") int maxOpsPerSecond) {
+        this.firestore = firestore;
+        this.medRecIdAllocator = medRecIdAllocator;
+        this.statsCounterService = statsCounterService;
+        this.objectMapper = objectMapper;
+        this.idBlock = idBlock;
+        this.maxInFlight = maxInFlight;
+        this.maxAttempts = maxAttempts;
+        this.writerOptions = BulkWriterOptions.builder()
+                .setInitialOpsPerSecond(initialOpsPerSecond)
+                .setMaxOpsPerSecond(maxOpsPerSecond)
+                .build();
+    }
+
+    public ImportProgress getProgress(String jobId) {
+        return jobs.getIfPresent(jobId);
+    }
+
+    // Runs the whole import on the calling thread; progress is visible through getProgress meanwhile
+    public ImportProgress importRecords(String jobId, InputStream in, boolean csv) {
+        String job = jobId == null || jobId.isBlank() ? UUID.randomUUID().toString() : jobId;
+        ImportProgress progress = new ImportProgress(job, csv ? "csv" : "ndjson");
+        jobs.put(progress.getJobId(), progress);
+
+        Semaphore inFlight = new Semaphore(maxInFlight);
+        LongAdder written = new LongAdder();
+        Map<String, LongAdder> byDiagnosis = new ConcurrentHashMap<>();
+
+        BulkWriter writer = firestore.bulkWriter(writerOptions);
+        writer.addWriteErrorListener(error -> error.getFailedAttempts() < maxAttempts);
+
+        String error = null;
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8), 1 << 16)) {
+            RowSource rows = csv ? csvSource(reader) : ndjsonSource(reader);
+            IdRange ids = null;
+            int used = 0;
+
+            MedRec record;
+            while ((record = rows.next(progress)) != null) {
+                if (ids == null || used == ids.size()) {
+                    if (ids != null) progress.idsAssigned(ids.get(0), ids.get(used - 1));
+                    ids = medRecIdAllocator.reserve(ids == null ? Math.min(FIRST_ID_BLOCK, idBlock)
+                            : Math.min(ids.size() * 2, idBlock));
+                    used = 0;
+                }
+                String id = ids.get(used++);
+                record.setMedID(id);
+
+                inFlight.acquire();
+                String diagnosis = record.getDiagnosis();
+                ApiFuture<WriteResult> result = FirestoreMetrics.observe("MedRecImportService.importRecords", COLLECTION_NAME,
+                        writer.set(firestore.collection(COLLECTION_NAME).document(id), record));
+                ApiFutures.addCallback(result, new ApiFutureCallback<WriteResult>() {
+                    @Override
+                    public void onSuccess(WriteResult writeResult) {
+                        progress.rowWritten();
+                        written.increment();
+                        if (diagnosis != null) byDiagnosis.computeIfAbsent(diagnosis, d -> new LongAdder()).increment();
+                        inFlight.release();
+                    }
+
+                    @Override
+                    public void onFailure(Throwable t) {
+                        progress.rowFailed();
+                        inFlight.release();
+                    }
+                }, MoreExecutors.directExecutor());
+            }
+            if (ids != null && used > 0) progress.idsAssigned(ids.get(0), ids.get(used - 1));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            error = "Import interrupted";
+        } catch (Exception e) {
+            log.warn("Import {} stopped after {} rows", progress.getJobId(), progress.getRowsRead(), e);
+            error = e.getMessage() == null ? e.getClass().getSimpleName() : e.getMessage();
+        }
+
+        // Whatever was sent is still flushed and counted, even when reading stopped early
+        try {
+            writer.close();
+            addToCounters(written.sum(), byDiagnosis);
+        } catch (Exception e) {
+            log.warn("Import {} could not finish its writes", progress.getJobId(), e);
+            if (error == null) error = "Could not finish writes: " + e.getMessage();
+        }
+
+        progress.finish(error);
+        log.info("Import {} {}: {} written, {} failed, {} skipped, {} rows/s", progress.getJobId(),
+                progress.getStatus(), progress.getWritten(), progress.getFailed(), progress.getSkipped(),
+                Math.round(progress.getRowsPerSecond()));
+        return progress;
+    }
+
+    private void addToCounters(long total, Map<String, LongAdder> byDiagnosis) throws Exception {
+        if (total == 0) {
+            return;
+        }
+        Map<String, Long> counts = new HashMap<>();
+        byDiagnosis.forEach((diagnosis, count) -> counts.put(diagnosis, count.sum()));
+
+        WriteBatch batch = firestore.batch();
+        statsCounterService.casesAdded(batch, total, counts);
+        FirestoreMetrics.get("MedRecImportService.addToCounters", COLLECTION_NAME, batch.commit());
+    }
+
+    // One JSON object per line, in the same shape /medrec/all returns
+    private RowSource ndjsonSource(BufferedReader reader) {
+        return progress -> {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isBlank()) continue;
+                progress.rowRead();
+                try {
+                    return objectMapper.readValue(line, MedRec.class);
+                } catch (IOException e) {
+                    progress.rowSkipped();
+                }
+            }
+            return null;
+        };
+    }
+
+    // RFC 4180 with a header row naming MedRec fields; unknown columns (and medID) are ignored
+    private RowSource csvSource(BufferedReader reader) throws IOException {
+        List<String> header = readCsvRow(reader);
+        if (header == null) {
+            return progress -> null;
+        }
+
+        return progress -> {
+            List<String> values;
+            while ((values = readCsvRow(reader)) != null) {
+                if (values.size() == 1 && values.get(0).isEmpty()) continue;
+                progress.rowRead();
+                try {
+                    return toMedRec(header, values);
+                } catch (IllegalArgumentException e) {
+                    progress.rowSkipped();
+                }
+            }
+            return null;
+        };
+    }
+
+    private MedRec toMedRec(List<String> header, List<String> values) {
+        MedRec record = new MedRec();
+        for (int i = 0; i < header.size() && i < values.size(); i++) {
+            String value = values.get(i);
+            if (value.isEmpty()) continue;
+            switch (header.get(i).trim()) {
+                case "userId" -> record.setUserId(value);
+                case "diagnosis" -> record.setDiagnosis(value);
+                case "riskStatus" -> record.setRiskStatus(value);
+                case "date" -> record.setDate(value);
+                case "symptoms" -> record.setSymptoms(value);
+                case "predScore" -> record.setPredScore(Double.parseDouble(value));
+                default -> { }
+            }
+        }
+        return record;
+    }
+
+    // One row, with quoted fields that may contain commas, quotes ("") and line breaks; null at EOF
+    private static List<String> readCsvRow(BufferedReader reader) throws IOException {
+        int c = reader.read();
+        if (c == -1) {
+            return null;
+        }
+
+        List<String> values = new ArrayList<>();
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        while (true) {
+            if (quoted) {
+                if (c == -1) {
+                    throw new IOException("Unterminated quoted CSV field");
+                }
+                if (c == '"') {
+                    reader.mark(1);
+                    int next = reader.read();
+                    if (next == '"') {
+                        field.append('"');
+                    } else {
+                        quoted = false;
+                        reader.reset();
+                    }
+                } else {
+                    field.append((char) c);
+                }
+            } else if (c == '"' && field.length() == 0) {
+                quoted = true;
+            } else if (c == ',') {
+                values.add(field.toString());
+                field.setLength(0);
+            } else if (c == '\n' || c == -1) {
+                break;
+            } else if (c != '\r') {
+                field.append((char) c);
+            }
+            c = reader.read();
+        }
+        values.add(field.toString());
+        return values;
+    }
+}
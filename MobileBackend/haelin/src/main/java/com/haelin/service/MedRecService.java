@@ -1,11 +1,21 @@
 package com.haelin.service;
 
-import com.google.api.core.ApiFuture;
+import com.google.api.gax.rpc.ApiException;
+import com.google.api.gax.rpc.StatusCode;
 import com.google.cloud.firestore.*;
 import com.google.firebase.cloud.FirestoreClient;
+import com.haelin.firebase.FirestoreMetrics;
+import com.haelin.id.IdAllocator;
 import com.haelin.model.MedRec;
+import com.haelin.model.Page;
+import com.haelin.readmodel.MedRecReadModel;
+import com.haelin.repository.FirestoreIndexes;
+import com.haelin.repository.FirestorePages;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.stereotype.Service;
 
+import java.io.IOException;
 import java.util.*;
 import java.util.concurrent.ExecutionException;
 
@@ -14,39 +24,38 @@ public class MedRecService {
 
     private static final String COLLECTION_NAME = "medical_records";
 
-    // Auto-generate IDs like MR001, MR002...
-    private String generateNewMedID(Firestore db) throws ExecutionException, InterruptedException {
-        CollectionReference collection = db.collection(COLLECTION_NAME);
-        ApiFuture<QuerySnapshot> query = collection.get();
-        List<QueryDocumentSnapshot> docs = query.get().getDocuments();
-
-        int maxNumber = 0;
-        for (QueryDocumentSnapshot doc : docs) {
-            String medID = doc.getString("medID");
-            if (medID != null && medID.startsWith("MR")) {
-                try {
-                    int num = Integer.parseInt(medID.substring(2));
-                    if (num > maxNumber) maxNumber = num;
-                } catch (NumberFormatException ignored) {}
-            }
-        }
-
-        int nextNumber = maxNumber + 1;
-        return String.format("MR%03d", nextNumber);
+    private final IdAllocator medRecIdAllocator;
+    private final StatsCounterService statsCounterService;
+    private final MedRecReadModel readModel;
+    private final OutbreakService outbreakService;
+
+    @Autowired
+    public MedRecService(@Qualifier("medRecIdAllocator") IdAllocator medRecIdAllocator,
+                         StatsCounterService statsCounterService, MedRecReadModel readModel,
+                         OutbreakService outbreakService) {
+        this.medRecIdAllocator = medRecIdAllocator;
+        this.statsCounterService = statsCounterService;
+        this.readModel = readModel;
+        this.outbreakService = outbreakService;
     }
 
     // Create record
     public String createRecord(MedRec medRec) throws ExecutionException, InterruptedException {
         Firestore db = FirestoreClient.getFirestore();
 
-        String newId = generateNewMedID(db);
+        // IDs like MR001, MR002... come from a locally leased block, not a collection scan
+        String newId = medRecIdAllocator.nextId();
         medRec.setMedID(newId);
 
-        ApiFuture<WriteResult> writeResult = db.collection(COLLECTION_NAME)
-                .document(newId)
-                .set(medRec);
+        // Record and dashboard counters are committed together
+        WriteBatch batch = db.batch();
+        batch.set(db.collection(COLLECTION_NAME).document(newId), medRec);
+        statsCounterService.caseAdded(batch, medRec.getDiagnosis());
 
-        return "New record created with ID " + newId + " at: " + writeResult.get().getUpdateTime();
+        List<WriteResult> results = FirestoreMetrics.get("MedRecService.createRecord", COLLECTION_NAME, batch.commit());
+        readModel.recordWritten(newId, medRec, results.get(0).getUpdateTime());
+        outbreakService.recordAdded(medRec);
+        return "New record created with ID " + newId + " at: " + results.get(0).getUpdateTime();
     }
 
     //Update
@@ -54,8 +63,7 @@ public class MedRecService {
         Firestore db = FirestoreClient.getFirestore();
         DocumentReference docRef = db.collection(COLLECTION_NAME).document(id);
 
-        ApiFuture<DocumentSnapshot> future = docRef.get();
-        DocumentSnapshot document = future.get();
+        DocumentSnapshot document = FirestoreMetrics.get("MedRecService.updateRecord", COLLECTION_NAME, docRef.get());
 
         if (!document.exists()) {
             return "Record with ID " + id + " not found.";
@@ -74,15 +82,27 @@ public class MedRecService {
             return "No fields to update for record ID " + id;
         }
 
-        ApiFuture<WriteResult> writeResult = docRef.update(updates);
-        return "Record updated at: " + writeResult.get().getUpdateTime();
+        WriteBatch batch = db.batch();
+        batch.update(docRef, updates);
+        statsCounterService.diagnosisChanged(batch, document.getString("diagnosis"), medRec.getDiagnosis());
+
+        List<WriteResult> results = FirestoreMetrics.get("MedRecService.updateRecord", COLLECTION_NAME, batch.commit());
+        MedRec updated = merge(document.toObject(MedRec.class), medRec);
+        readModel.recordWritten(id, updated, results.get(0).getUpdateTime());
+        outbreakService.recordRemoved(document.toObject(MedRec.class));
+        outbreakService.recordAdded(updated);
+        return "Record updated at: " + results.get(0).getUpdateTime();
     }
 
-    // Get all records
+    // Get all records (from the local read model once it is in sync)
     public List<MedRec> getAllRecords() throws ExecutionException, InterruptedException {
+        if (readModel.isReady()) {
+            return readModel.all();
+        }
+
         Firestore db = FirestoreClient.getFirestore();
-        ApiFuture<QuerySnapshot> query = db.collection(COLLECTION_NAME).get();
-        List<QueryDocumentSnapshot> docs = query.get().getDocuments();
+        List<QueryDocumentSnapshot> docs = FirestoreMetrics.get("MedRecService.getAllRecords", COLLECTION_NAME,
+                db.collection(COLLECTION_NAME).get()).getDocuments();
 
         List<MedRec> records = new ArrayList<>();
         for (QueryDocumentSnapshot doc : docs) {
@@ -91,16 +111,81 @@ public class MedRecService {
         return records;
     }
 
-    // Get records by userId
-    public List<MedRec> getRecordsByUserId(String userId) throws ExecutionException, InterruptedException {
+    // One page of records, ordered by medID
+    public Page<MedRec> getRecordsPage(Integer limit, String pageToken) throws ExecutionException, InterruptedException {
         Firestore db = FirestoreClient.getFirestore();
-        ApiFuture<QuerySnapshot> query = db.collection(COLLECTION_NAME)
-                .whereEqualTo("userId", userId)
-                .get();
+        return FirestorePages.fetch("MedRecService.getRecordsPage", db.collection(COLLECTION_NAME), MedRec.class, limit, pageToken);
+    }
+
+    // Every record, decoded and handed over one page at a time
+    public void forEachRecord(FirestorePages.DocumentHandler<MedRec> handler)
+            throws ExecutionException, InterruptedException, IOException {
+        Firestore db = FirestoreClient.getFirestore();
+        FirestorePages.forEach("MedRecService.forEachRecord", db.collection(COLLECTION_NAME), MedRec.class, handler);
+    }
+
+    // A user's most recent records, newest first, with only the fields the history screen shows
+    public List<MedRec> getRecordsByUserId(String userId, Integer limit) throws ExecutionException, InterruptedException {
+        int size = FirestorePages.pageSize(limit);
+        if (readModel.isReady()) {
+            // Same answer as the indexed query: dated records only, newest first, with the same fields
+            List<MedRec> records = new ArrayList<>();
+            for (MedRec record : readModel.byUser(userId)) {
+                if (record.getDate() != null) records.add(historyFields(record));
+            }
+            records.sort(Comparator.comparing(MedRec::getDate, Comparator.reverseOrder()));
+            return records.subList(0, Math.min(size, records.size()));
+        }
+
+        Firestore db = FirestoreClient.getFirestore();
+        return FirestoreIndexes.RECENT_MEDICAL_RECORDS.fetch("MedRecService.getRecordsByUserId", db, size, userId);
+    }
+
+    // The fields RECENT_MEDICAL_RECORDS selects, copied so the read model's record is not shared
+    private static MedRec historyFields(MedRec record) {
+        MedRec projected = new MedRec();
+        projected.setMedID(record.getMedID());
+        projected.setDiagnosis(record.getDiagnosis());
+        projected.setRiskStatus(record.getRiskStatus());
+        projected.setDate(record.getDate());
+        projected.setSymptoms(record.getSymptoms());
+        return projected;
+    }
+
+    // Records matching every given filter; dates are inclusive yyyy-MM-dd bounds
+    public List<MedRec> searchRecords(String userId, String diagnosis, String fromDate, String toDate)
+            throws ExecutionException, InterruptedException {
+        if (readModel.isReady()) {
+            return readModel.search(userId, diagnosis, fromDate, toDate);
+        }
+
+        Firestore db = FirestoreClient.getFirestore();
+        // Equality filters with a date range need a composite index, so those shapes are declared queries
+        if (fromDate != null || toDate != null) {
+            if (userId != null && diagnosis != null) {
+                return FirestoreIndexes.MEDICAL_RECORDS_BY_USER_DIAGNOSIS_AND_DATE.fetchRange(
+                        "MedRecService.searchRecords", db, fromDate, toDate, userId, diagnosis);
+            }
+            if (userId != null) {
+                return FirestoreIndexes.MEDICAL_RECORDS_BY_USER_AND_DATE.fetchRange(
+                        "MedRecService.searchRecords", db, fromDate, toDate, userId);
+            }
+            if (diagnosis != null) {
+                return FirestoreIndexes.MEDICAL_RECORDS_BY_DIAGNOSIS_AND_DATE.fetchRange(
+                        "MedRecService.searchRecords", db, fromDate, toDate, diagnosis);
+            }
+        }
+
+        // Equality filters alone, or a date range alone, are served by single-field indexes
+        Query query = db.collection(COLLECTION_NAME);
+        if (userId != null) query = query.whereEqualTo("userId", userId);
+        if (diagnosis != null) query = query.whereEqualTo("diagnosis", diagnosis);
+        if (fromDate != null) query = query.whereGreaterThanOrEqualTo("date", fromDate);
+        if (toDate != null) query = query.whereLessThanOrEqualTo("date", toDate);
 
-        List<QueryDocumentSnapshot> docs = query.get().getDocuments();
         List<MedRec> records = new ArrayList<>();
-        for (QueryDocumentSnapshot doc : docs) {
+        QuerySnapshot snapshot = FirestoreMetrics.get("MedRecService.searchRecords", COLLECTION_NAME, query.get());
+        for (QueryDocumentSnapshot doc : snapshot.getDocuments()) {
             records.add(doc.toObject(MedRec.class));
         }
         return records;
@@ -108,17 +193,63 @@ public class MedRecService {
 
     // Get one record
     public MedRec getRecordById(String medID) throws ExecutionException, InterruptedException {
+        if (readModel.isReady()) {
+            return readModel.get(medID);
+        }
+
         Firestore db = FirestoreClient.getFirestore();
         DocumentReference docRef = db.collection(COLLECTION_NAME).document(medID);
-        DocumentSnapshot document = docRef.get().get();
+        DocumentSnapshot document = FirestoreMetrics.get("MedRecService.getRecordById", COLLECTION_NAME, docRef.get());
 
         return document.exists() ? document.toObject(MedRec.class) : null;
     }
 
     // Delete record
-    public String deleteRecord(String medID) {
+    public String deleteRecord(String medID) throws ExecutionException, InterruptedException {
         Firestore db = FirestoreClient.getFirestore();
-        db.collection(COLLECTION_NAME).document(medID).delete();
+        DocumentReference docRef = db.collection(COLLECTION_NAME).document(medID);
+
+        // Read first so the counters are only decremented for a record that exists. The delete only
+        // applies to the version read: of two concurrent deletes, the second fails its precondition,
+        // re-reads, finds the record gone and leaves the counters alone.
+        for (int attempt = 1; ; attempt++) {
+            DocumentSnapshot document = FirestoreMetrics.get("MedRecService.deleteRecord", COLLECTION_NAME, docRef.get());
+            if (!document.exists()) {
+                break;
+            }
+            WriteBatch batch = db.batch();
+            batch.delete(docRef, Precondition.updatedAt(document.getUpdateTime()));
+            statsCounterService.caseRemoved(batch, document.getString("diagnosis"));
+            List<WriteResult> results;
+            try {
+                results = FirestoreMetrics.get("MedRecService.deleteRecord", COLLECTION_NAME, batch.commit());
+            } catch (ExecutionException e) {
+                if (attempt < 3 && isFailedPrecondition(e)) {
+                    continue;
+                }
+                throw e;
+            }
+            readModel.recordDeleted(medID, results.get(0).getUpdateTime());
+            outbreakService.recordRemoved(document.toObject(MedRec.class));
+            break;
+        }
         return "Record with ID " + medID + " deleted successfully.";
     }
+
+    // The record changed or disappeared between the read and the write
+    private static boolean isFailedPrecondition(ExecutionException e) {
+        return e.getCause() instanceof ApiException api
+                && api.getStatusCode().getCode() == StatusCode.Code.FAILED_PRECONDITION;
+    }
+
+    // The stored record with the non-null fields of an update applied, as updateRecord writes it
+    private MedRec merge(MedRec stored, MedRec update) {
+        if (update.getUserId() != null) stored.setUserId(update.getUserId());
+        if (update.getDiagnosis() != null) stored.setDiagnosis(update.getDiagnosis());
+        if (update.getRiskStatus() != null) stored.setRiskStatus(update.getRiskStatus());
+        if (update.getDate() != null) stored.setDate(update.getDate());
+        if (update.getSymptoms() != null) stored.setSymptoms(update.getSymptoms());
+        if (update.getPredScore() != null) stored.setPredScore(update.getPredScore());
+        return stored;
+    }
 }
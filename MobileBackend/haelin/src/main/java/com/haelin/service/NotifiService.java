@@ -1,13 +1,25 @@
 package com.haelin.service;
 
-import com.google.api.core.ApiFuture;
 import com.google.cloud.firestore.*;
 import com.google.firebase.cloud.FirestoreClient;
+import com.haelin.firebase.FirestoreMetrics;
 import com.haelin.model.Notification;
+import com.haelin.model.Page;
+import com.haelin.repository.FirestoreIndexes;
+import com.haelin.repository.FirestorePages;
+import com.haelin.repository.WriteBehindQueue;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
 import org.springframework.stereotype.Service;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.ExecutionException;
 
 @Service
@@ -15,22 +27,74 @@ public class NotifiService {
 
     private static final String COLLECTION_NAME = "notifications";
 
+    // Marks the one-off createdAt backfill as done, so later starts skip the scan
+    private static final String BACKFILL_DOC = "backfills";
+    private static final String BACKFILL_FIELD = "notificationsCreatedAt";
+
+    private static final Logger log = LoggerFactory.getLogger(NotifiService.class);
+
+    private final WriteBehindQueue writeBehind;
+    private final boolean backfillCreatedAt;
+
+    @Autowired
+    public NotifiService(WriteBehindQueue writeBehind,
+                         @Value("${haelin.notifications.backfill-created-at:true}") boolean backfillCreatedAt) {
+        this.writeBehind = writeBehind;
+        this.backfillCreatedAt = backfillCreatedAt;
+    }
+
+    // Notifications saved before createdAt existed never match the ordered per-user query. Once per
+    // deployment they get their document create time, and a marker in counters/backfills records it.
+    @EventListener(ApplicationReadyEvent.class)
+    public void backfillCreatedAt() throws ExecutionException, InterruptedException, IOException {
+        if (!backfillCreatedAt) {
+            return;
+        }
+        Firestore db = FirestoreClient.getFirestore();
+        DocumentReference marker = db.collection("counters").document(BACKFILL_DOC);
+        DocumentSnapshot done = FirestoreMetrics.get("NotifiService.backfillCreatedAt", "counters", marker.get());
+        if (Boolean.TRUE.equals(done.getBoolean(BACKFILL_FIELD))) {
+            return;
+        }
+
+        long[] updated = {0};
+        BulkWriter writer = db.bulkWriter();
+        FirestorePages.forEachSnapshot("NotifiService.backfillCreatedAt", db.collection(COLLECTION_NAME), doc -> {
+            if (doc.get("createdAt") == null) {
+                writer.update(doc.getReference(), "createdAt", doc.getCreateTime().toDate().getTime());
+                updated[0]++;
+            }
+        });
+        writer.close();
+
+        FirestoreMetrics.get("NotifiService.backfillCreatedAt", "counters",
+                marker.set(Map.of(BACKFILL_FIELD, true), SetOptions.merge()));
+        log.info("Backfilled createdAt on {} notifications", updated[0]);
+    }
+
     // Create
-    public String saveNotification(Notification notification) throws ExecutionException, InterruptedException {
+    public String saveNotification(Notification notification)
+            throws ExecutionException, InterruptedException, IOException {
         Firestore db = FirestoreClient.getFirestore();
+        notification.setCreatedAt(System.currentTimeMillis());
+
+        // The ID is generated locally, so a queued write can be acknowledged (and replayed) with it
+        DocumentReference docRef = db.collection(COLLECTION_NAME).document();
+        if (writeBehind.offer(COLLECTION_NAME, docRef.getId(), notification)) {
+            return "Notification queued with ID: " + docRef.getId();
+        }
 
-        ApiFuture<WriteResult> writeResult = db.collection(COLLECTION_NAME)
-                .document()
-                .set(notification);
+        WriteResult writeResult = FirestoreMetrics.get("NotifiService.saveNotification", COLLECTION_NAME,
+                docRef.set(notification));
 
-        return "Notification added at: " + writeResult.get().getUpdateTime();
+        return "Notification added at: " + writeResult.getUpdateTime();
     }
 
     // Read all
     public List<Notification> getAllNotifications() throws ExecutionException, InterruptedException {
         Firestore db = FirestoreClient.getFirestore();
-        ApiFuture<QuerySnapshot> query = db.collection(COLLECTION_NAME).get();
-        List<QueryDocumentSnapshot> documents = query.get().getDocuments();
+        List<QueryDocumentSnapshot> documents = FirestoreMetrics.get("NotifiService.getAllNotifications",
+                COLLECTION_NAME, db.collection(COLLECTION_NAME).get()).getDocuments();
 
         List<Notification> notifications = new ArrayList<>();
         for (QueryDocumentSnapshot document : documents) {
@@ -39,26 +103,34 @@ public class NotifiService {
         return notifications;
     }
 
-    // Get notifications for a specific userId
-    public List<Notification> getNotificationsByUser(String userId) throws ExecutionException, InterruptedException {
+    // One page of notifications, ordered by document ID
+    public Page<Notification> getNotificationsPage(Integer limit, String pageToken)
+            throws ExecutionException, InterruptedException {
         Firestore db = FirestoreClient.getFirestore();
-        ApiFuture<QuerySnapshot> query = db.collection(COLLECTION_NAME)
-                .whereEqualTo("userId", userId)
-                .get();
+        return FirestorePages.fetch("NotifiService.getNotificationsPage", db.collection(COLLECTION_NAME), Notification.class, limit, pageToken);
+    }
 
-        List<QueryDocumentSnapshot> documents = query.get().getDocuments();
-        List<Notification> notifications = new ArrayList<>();
-        for (QueryDocumentSnapshot document : documents) {
-            notifications.add(document.toObject(Notification.class));
-        }
-        return notifications;
+    // Every notification, decoded and handed over one page at a time
+    public void forEachNotification(FirestorePages.DocumentHandler<Notification> handler)
+            throws ExecutionException, InterruptedException, IOException {
+        Firestore db = FirestoreClient.getFirestore();
+        FirestorePages.forEach("NotifiService.forEachNotification", db.collection(COLLECTION_NAME), Notification.class, handler);
+    }
+
+    // Get notifications for a specific userId
+    public List<Notification> getNotificationsByUser(String userId, Integer limit)
+            throws ExecutionException, InterruptedException {
+        Firestore db = FirestoreClient.getFirestore();
+        return FirestoreIndexes.RECENT_NOTIFICATIONS.fetch("NotifiService.getNotificationsByUser", db,
+                FirestorePages.pageSize(limit), userId);
     }
 
     // Delete
     public String deleteNotification(String docId) throws ExecutionException, InterruptedException {
         Firestore db = FirestoreClient.getFirestore();
-        ApiFuture<WriteResult> writeResult = db.collection(COLLECTION_NAME).document(docId).delete();
-        return "Notification deleted at: " + writeResult.get().getUpdateTime();
+        WriteResult writeResult = FirestoreMetrics.get("NotifiService.deleteNotification", COLLECTION_NAME,
+                db.collection(COLLECTION_NAME).document(docId).delete());
+        return "Notification deleted at: " + writeResult.getUpdateTime();
     }
 }
 
@@ -0,0 +1,193 @@
+package com.haelin.service;
+
+import com.google.cloud.firestore.DocumentChange;
+import com.google.cloud.firestore.Firestore;
+import com.google.cloud.firestore.ListenerRegistration;
+import com.google.cloud.firestore.QuerySnapshot;
+import com.haelin.firebase.FirestoreMetrics;
+import com.haelin.model.Notification;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.codec.ServerSentEvent;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Sinks;
+import reactor.util.concurrent.Queues;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Pushes new notifications to connected clients as Server-Sent Events.
+ *
+ * One Firestore snapshot listener per node watches notifications created since startup and fans
+ * each new document out to that user's subscribers. Every subscriber has a bounded buffer. A
+ * client that falls behind by a full buffer is disconnected; on reconnect it can catch up
+ * through GET /notification/my.
+ *
+ * A snapshot listener holds its whole result set in memory, so the listener is periodically
+ * replaced by one anchored at the newest notification seen; its size stays bounded by the
+ * notifications created in one period rather than since startup.
+ */
+@Service
+public class NotificationHub implements DisposableBean {
+
+    private static final String COLLECTION_NAME = "notifications";
+
+    private static final Logger log = LoggerFactory.getLogger(NotificationHub.class);
+
+    private final Firestore firestore;
+    private final int bufferSize;
+    private final Duration heartbeat;
+    private final Map<String, Set<Sinks.Many<Notification>>> subscribers = new ConcurrentHashMap<>();
+    private final AtomicInteger connected = new AtomicInteger();
+    private final Counter dropped;
+
+    // Documents created before this are never pushed; moves forward so a reconnect resumes
+    // where the last listener stopped (at worst re-sending the newest notification)
+    private volatile long since = System.currentTimeMillis();
+    // IDs already pushed with createdAt == since, which a fresh listener would deliver again
+    private final Set<String> publishedAtSince = ConcurrentHashMap.newKeySet();
+    private volatile ListenerRegistration listener;
+    private volatile boolean closed;
+
+    @Autowired
+    public NotificationHub(Firestore firestore, MeterRegistry meterRegistry,
+                           @Value("${haelin.notifications.stream.buffer-size:256}") int bufferSize,
+                           @Value("${haelin.notifications.stream.heartbeat-seconds:25}") long heartbeatSeconds) {
+        this.firestore = firestore;
+        this.bufferSize = bufferSize;
+        this.heartbeat = Duration.ofSeconds(heartbeatSeconds);
+        Gauge.builder("haelin.notifications.stream.subscribers", connected, AtomicInteger::get).register(meterRegistry);
+        this.dropped = Counter.builder("haelin.notifications.stream.dropped").register(meterRegistry);
+        listen();
+    }
+
+    // Live notifications for one user, with periodic comments so idle connections stay open
+    public Flux<ServerSentEvent<Notification>> subscribe(String userId) {
+        Sinks.Many<Notification> sink = Sinks.many().unicast()
+                .onBackpressureBuffer(Queues.<Notification>get(bufferSize).get());
+
+        // Heartbeats stop when the sink completes (slow client or shutdown), ending the stream
+        return sink.asFlux()
+                .map(notification -> ServerSentEvent.builder(notification).event("notification").build())
+                .publish(events -> Flux.merge(events, Flux.interval(heartbeat)
+                        .map(tick -> ServerSentEvent.<Notification>builder().comment("keepalive").build())
+                        .takeUntilOther(events.then())))
+                .doOnSubscribe(s -> register(userId, sink))
+                .doFinally(signal -> unregister(userId, sink));
+    }
+
+    private void register(String userId, Sinks.Many<Notification> sink) {
+        subscribers.computeIfAbsent(userId, k -> ConcurrentHashMap.newKeySet()).add(sink);
+        connected.incrementAndGet();
+    }
+
+    private void unregister(String userId, Sinks.Many<Notification> sink) {
+        subscribers.computeIfPresent(userId, (k, sinks) -> {
+            if (sinks.remove(sink)) connected.decrementAndGet();
+            return sinks.isEmpty() ? null : sinks;
+        });
+    }
+
+    // Swaps the listener for one starting at `since`; anything created meanwhile is in the new one's first snapshot
+    @Scheduled(fixedDelayString = "${haelin.notifications.stream.reanchor-ms:600000}",
+            initialDelayString = "${haelin.notifications.stream.reanchor-ms:600000}")
+    public void reanchor() {
+        ListenerRegistration previous;
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            previous = listener;
+            listener = null;
+        }
+        // Outside the lock, so a callback of the old listener can finish publishing
+        if (previous != null) {
+            previous.remove();
+        }
+        listen();
+    }
+
+    private synchronized void listen() {
+        if (closed) {
+            return;
+        }
+        ListenerRegistration[] registration = new ListenerRegistration[1];
+        registration[0] = firestore.collection(COLLECTION_NAME)
+                .whereGreaterThanOrEqualTo("createdAt", since)
+                .addSnapshotListener((snapshot, error) -> {
+                    FirestoreMetrics.listenerEvent("NotificationHub.listen", COLLECTION_NAME, snapshot, error);
+                    if (error != null) {
+                        log.warn("Notification listener failed; reconnecting", error);
+                        CompletableFuture.delayedExecutor(5, TimeUnit.SECONDS).execute(() -> {
+                            // Unless a re-anchor has already replaced it
+                            synchronized (this) {
+                                if (listener == registration[0]) listen();
+                            }
+                        });
+                        return;
+                    }
+                    if (snapshot != null) {
+                        publish(snapshot);
+                    }
+                });
+        this.listener = registration[0];
+    }
+
+    private synchronized void publish(QuerySnapshot snapshot) {
+        for (DocumentChange change : snapshot.getDocumentChanges()) {
+            if (change.getType() != DocumentChange.Type.ADDED) {
+                continue;
+            }
+            Notification notification = change.getDocument().toObject(Notification.class);
+            String id = change.getDocument().getId();
+            Long createdAt = notification.getCreatedAt();
+            if (createdAt != null && createdAt > since) {
+                since = createdAt;
+                publishedAtSince.clear();
+            }
+            if (createdAt != null && createdAt == since && !publishedAtSince.add(id)) {
+                continue;
+            }
+
+            Set<Sinks.Many<Notification>> sinks = notification.getUserId() == null
+                    ? null : subscribers.get(notification.getUserId());
+            if (sinks == null) {
+                continue;
+            }
+            for (Sinks.Many<Notification> sink : sinks) {
+                // A full buffer means the client is not reading; cut it loose rather than block the fan-out
+                if (sink.tryEmitNext(notification).isFailure()) {
+                    dropped.increment();
+                    sink.tryEmitComplete();
+                }
+            }
+        }
+    }
+
+    @Override
+    public synchronized void destroy() {
+        closed = true;
+        if (listener != null) {
+            listener.remove();
+        }
+        for (Set<Sinks.Many<Notification>> sinks : subscribers.values()) {
+            for (Sinks.Many<Notification> sink : sinks) {
+                sink.tryEmitComplete();
+            }
+        }
+    }
+}
@@ -0,0 +1,138 @@
+package com.haelin.service;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Case counts per diagnosis, city and day, kept in flat int arrays.
+ *
+ * Each diagnosis has one array laid out city-major: [city * windowDays + slot]. Days map to
+ * ring slots by epochDay % windowDays. slotDay records which day a slot currently holds. A newer
+ * day reusing a slot clears that slot first, so the grid always covers the latest windowDays days.
+ * Adding a city grows the arrays by doubling.
+ *
+ * Not thread-safe; OutbreakService guards it with a read/write lock.
+ */
+final class OutbreakGrid {
+
+    static final class Series {
+        final String city;
+        final String diagnosis;
+        final int[] counts;
+        final long total;
+
+        private Series(String city, String diagnosis, int[] counts, long total) {
+            this.city = city;
+            this.diagnosis = diagnosis;
+            this.counts = counts;
+            this.total = total;
+        }
+    }
+
+    private final int windowDays;
+    private final long[] slotDay;
+
+    private final Map<String, Integer> cityIndex = new HashMap<>();
+    private final List<String> cities = new ArrayList<>();
+    private final Map<String, Integer> diagnosisIndex = new HashMap<>();
+    private final List<String> diagnoses = new ArrayList<>();
+
+    private int cityCapacity = 64;
+    private int[][] counts = new int[0][];
+
+    OutbreakGrid(int windowDays) {
+        this.windowDays = windowDays;
+        this.slotDay = new long[windowDays];
+        Arrays.fill(slotDay, Long.MIN_VALUE);
+    }
+
+    int windowDays() {
+        return windowDays;
+    }
+
+    // Days older than the window are ignored; counts never drop below zero
+    void add(String city, String diagnosis, long epochDay, int delta) {
+        int slot = (int) Math.floorMod(epochDay, (long) windowDays);
+        if (slotDay[slot] != epochDay) {
+            if (slotDay[slot] > epochDay || delta < 0) {
+                return;
+            }
+            clearSlot(slot);
+            slotDay[slot] = epochDay;
+        }
+
+        // Both indexes first: a new city replaces every diagnosis array, a new diagnosis the outer one
+        int c = city(city);
+        int d = diagnosis(diagnosis);
+        int[] cells = counts[d];
+        int cell = c * windowDays + slot;
+        cells[cell] = Math.max(0, cells[cell] + delta);
+    }
+
+    // Non-empty series for the inclusive day range, optionally limited to one city and/or diagnosis
+    List<Series> query(long fromDay, long toDay, String cityFilter, String diagnosisFilter) {
+        int days = (int) (toDay - fromDay + 1);
+        List<Series> result = new ArrayList<>();
+        for (int d = 0; d < diagnoses.size(); d++) {
+            if (diagnosisFilter != null && !diagnosisFilter.equalsIgnoreCase(diagnoses.get(d))) continue;
+            int[] cells = counts[d];
+            for (int c = 0; c < cities.size(); c++) {
+                if (cityFilter != null && !cityFilter.equalsIgnoreCase(cities.get(c))) continue;
+
+                int[] series = new int[days];
+                long total = 0;
+                for (int i = 0; i < days; i++) {
+                    long day = fromDay + i;
+                    int slot = (int) Math.floorMod(day, (long) windowDays);
+                    if (slotDay[slot] == day) {
+                        series[i] = cells[c * windowDays + slot];
+                        total += series[i];
+                    }
+                }
+                if (total > 0) {
+                    result.add(new Series(cities.get(c), diagnoses.get(d), series, total));
+                }
+            }
+        }
+        return result;
+    }
+
+    private void clearSlot(int slot) {
+        for (int[] cells : counts) {
+            for (int c = 0; c < cities.size(); c++) {
+                cells[c * windowDays + slot] = 0;
+            }
+        }
+    }
+
+    private int city(String city) {
+        Integer index = cityIndex.get(city);
+        if (index != null) {
+            return index;
+        }
+        if (cities.size() == cityCapacity) {
+            cityCapacity *= 2;
+            for (int d = 0; d < counts.length; d++) {
+                counts[d] = Arrays.copyOf(counts[d], cityCapacity * windowDays);
+            }
+        }
+        cityIndex.put(city, cities.size());
+        cities.add(city);
+        return cities.size() - 1;
+    }
+
+    private int diagnosis(String diagnosis) {
+        Integer index = diagnosisIndex.get(diagnosis);
+        if (index != null) {
+            return index;
+        }
+        counts = Arrays.copyOf(counts, counts.length + 1);
+        counts[counts.length - 1] = new int[cityCapacity * windowDays];
+        diagnosisIndex.put(diagnosis, diagnoses.size());
+        diagnoses.add(diagnosis);
+        return diagnoses.size() - 1;
+    }
+}
@@ -0,0 +1,174 @@
+package com.haelin.service;
+
+import com.google.cloud.firestore.Firestore;
+import com.haelin.model.MedRec;
+import com.haelin.model.User;
+import com.haelin.repository.FirestorePages;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+// Per-city, per-day case counts behind /dashboard/outbreaks.
+// Rebuilt from users + medical_records on a schedule and kept current in between by MedRecService,
+// so records written through other nodes show up at the next rebuild.
+@Service
+public class OutbreakService {
+
+    private static final String UNKNOWN_CITY = "Unknown";
+    private static final int DEFAULT_RANGE_DAYS = 30;
+
+    private static final Logger log = LoggerFactory.getLogger(OutbreakService.class);
+
+    private final Firestore firestore;
+    private final UserService userService;
+    private final int windowDays;
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private OutbreakGrid grid;
+
+    @Autowired
+    public OutbreakService(Firestore firestore, UserService userService,
+                           @Value("${haelin.outbreaks.window-days:365}") int windowDays) {
+        this.firestore = firestore;
+        this.userService = userService;
+        this.windowDays = windowDays;
+        this.grid = new OutbreakGrid(windowDays);
+    }
+
+    public void recordAdded(MedRec record) {
+        apply(record, 1);
+    }
+
+    public void recordRemoved(MedRec record) {
+        apply(record, -1);
+    }
+
+    // Counts for an inclusive date range (default: the last 30 days), clipped to the kept window
+    public Map<String, Object> getOutbreaks(LocalDate from, LocalDate to, String city, String diagnosis) {
+        // The grid holds today and the windowDays - 1 days before it; the range is cut to that, so an
+        // open-ended `to` cannot size the per-series arrays
+        LocalDate today = LocalDate.now();
+        LocalDate end = to != null && to.isBefore(today) ? to : today;
+        LocalDate start = from != null ? from : end.minusDays(DEFAULT_RANGE_DAYS - 1);
+        LocalDate oldest = today.minusDays(windowDays - 1);
+        if (start.isBefore(oldest)) start = oldest;
+        if (start.isAfter(today)) start = today;
+        if (end.isBefore(start)) end = start;
+        if (end.isAfter(start.plusDays(windowDays - 1))) end = start.plusDays(windowDays - 1);
+
+        List<OutbreakGrid.Series> series;
+        lock.readLock().lock();
+        try {
+            series = grid.query(start.toEpochDay(), end.toEpochDay(), city, diagnosis);
+        } finally {
+            lock.readLock().unlock();
+        }
+
+        List<Map<String, Object>> items = new ArrayList<>(series.size());
+        for (OutbreakGrid.Series s : series) {
+            Map<String, Object> item = new LinkedHashMap<>();
+            item.put("city", s.city);
+            item.put("diagnosis", s.diagnosis);
+            item.put("total", s.total);
+            item.put("counts", s.counts);
+            items.add(item);
+        }
+
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("from", start.toString());
+        result.put("to", end.toString());
+        result.put("series", items);
+        return result;
+    }
+
+    // Full recount; replaces the grid in one swap so queries never see a half-built one
+    @Scheduled(fixedDelayString = "${haelin.outbreaks.rebuild-interval-ms:3600000}")
+    public void rebuild() throws ExecutionException, InterruptedException, IOException {
+        Map<String, String> cityByUser = new HashMap<>();
+        FirestorePages.forEach("OutbreakService.rebuild", firestore.collection("users"), User.class,
+                user -> cityByUser.put(user.getUserId(), normalizeCity(user.getCity())));
+
+        OutbreakGrid fresh = new OutbreakGrid(windowDays);
+        long[] skipped = {0};
+        FirestorePages.forEach("OutbreakService.rebuild", firestore.collection("medical_records"), MedRec.class, record -> {
+            Long day = epochDay(record.getDate());
+            if (day == null || record.getDiagnosis() == null) {
+                skipped[0]++;
+                return;
+            }
+            fresh.add(cityByUser.getOrDefault(record.getUserId(), UNKNOWN_CITY), record.getDiagnosis(), day, 1);
+        });
+
+        lock.writeLock().lock();
+        try {
+            grid = fresh;
+        } finally {
+            lock.writeLock().unlock();
+        }
+        if (skipped[0] > 0) {
+            log.info("Outbreak counts rebuilt; {} records without a diagnosis or readable date were skipped", skipped[0]);
+        }
+    }
+
+    // Best effort: the record is already committed, and the next rebuild corrects any count missed here
+    private void apply(MedRec record, int delta) {
+        try {
+            count(record, delta);
+        } catch (RuntimeException e) {
+            log.warn("Could not update outbreak counts for record {}", record.getMedID(), e);
+        }
+    }
+
+    private void count(MedRec record, int delta) {
+        Long day = epochDay(record.getDate());
+        if (day == null || record.getDiagnosis() == null) {
+            return;
+        }
+
+        String city = UNKNOWN_CITY;
+        try {
+            User user = record.getUserId() == null ? null : userService.getUser(record.getUserId());
+            if (user != null) city = normalizeCity(user.getCity());
+        } catch (Exception e) {
+            log.debug("Could not look up the city of user {}", record.getUserId(), e);
+        }
+
+        lock.writeLock().lock();
+        try {
+            grid.add(city, record.getDiagnosis(), day, delta);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private static String normalizeCity(String city) {
+        return city == null || city.isBlank() ? UNKNOWN_CITY : city.trim();
+    }
+
+    // MedRec dates are stored as strings starting with yyyy-MM-dd
+    private static Long epochDay(String date) {
+        if (date == null || date.length() < 10) {
+            return null;
+        }
+        try {
+            return LocalDate.parse(date.substring(0, 10)).toEpochDay();
+        } catch (DateTimeParseException e) {
+            return null;
+        }
+    }
+}
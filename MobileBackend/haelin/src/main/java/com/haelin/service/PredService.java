@@ -1,38 +1,43 @@
 package com.haelin.service;
 
 import com.google.api.core.ApiFuture;
-import com.google.cloud.firestore.DocumentReference;
 import com.google.cloud.firestore.DocumentSnapshot;
 import com.google.cloud.firestore.Firestore;
 import com.google.cloud.firestore.QuerySnapshot;
+import com.google.cloud.firestore.WriteResult;
+import com.haelin.firebase.FirestoreMetrics;
+import com.haelin.id.IdAllocator;
+import com.haelin.model.Page;
 import com.haelin.model.Prediction;
+import com.haelin.repository.FirestorePages;
 import com.haelin.repository.PredRepository;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.stereotype.Service;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.io.IOException;
+import java.util.List;
 import java.util.concurrent.ExecutionException;
 
 @Service
 public class PredService {
-    private static final String COUNTER_COLLECTION = "counters";
-    private static final String COUNTER_DOC = "predictionCounter";
-    private static final String COUNTER_FIELD = "lastNumber";
-
     private final Firestore firestore;
     private final PredRepository predictionRepository;
+    private final IdAllocator predictionIdAllocator;
 
     @Autowired
-    public PredService(Firestore firestore, PredRepository predictionRepository) {
+    public PredService(Firestore firestore, PredRepository predictionRepository,
+                       @Qualifier("predictionIdAllocator") IdAllocator predictionIdAllocator) {
         this.firestore = firestore;
         this.predictionRepository = predictionRepository;
+        this.predictionIdAllocator = predictionIdAllocator;
     }
 
     // Public method to be called by controller
-    public String createPrediction(Prediction prediction) throws ExecutionException, InterruptedException {
-        // Generate sequential ID in a transaction to avoid race conditions
-        String newId = generateNextPredictionIdTransaction();
+    public String createPrediction(Prediction prediction)
+            throws ExecutionException, InterruptedException, IOException {
+        // Sequential ID (PR001, PR002, ...) from a block leased in one counter transaction
+        String newId = predictionIdAllocator.nextId();
         prediction.setPredID(newId);
 
         // Save through repository (which uses document(newId).set(prediction))
@@ -41,36 +46,19 @@ public class PredService {
         return "Prediction saved with ID " + newId;
     }
 
-    // Transactional counter update — safe for concurrent requests
-    private String generateNextPredictionIdTransaction() throws ExecutionException, InterruptedException {
-        DocumentReference counterRef = firestore.collection(COUNTER_COLLECTION).document(COUNTER_DOC);
-
-        // Transaction function: read counter, compute next, write new counter, return next number
-        ApiFuture<Integer> transactionFuture = firestore.runTransaction(transaction -> {
-            DocumentSnapshot snapshot = transaction.get(counterRef).get();
-
-            int next = 1;
-            if (snapshot.exists()) {
-                Long last = snapshot.getLong(COUNTER_FIELD);
-                if (last != null) next = last.intValue() + 1;
-            }
-
-            Map<String, Object> update = new HashMap<>();
-            update.put(COUNTER_FIELD, next);
-            // Use set to create or overwrite the counter doc
-            transaction.set(counterRef, update);
-
-            return next;
-        });
-
-        int nextNumber = transactionFuture.get(); // this waits for transaction to finish
-        return String.format("PR%03d", nextNumber); // PR001, PR002, ...
+    // Assigns IDs to a group of predictions and writes them together in one batch
+    public ApiFuture<List<WriteResult>> createPredictions(List<Prediction> predictions)
+            throws ExecutionException, InterruptedException, IOException {
+        for (Prediction prediction : predictions) {
+            prediction.setPredID(predictionIdAllocator.nextId());
+        }
+        return predictionRepository.savePredictions(predictions);
     }
 
     // Optional: list all predictions
     public java.util.List<Prediction> getAllPredictions() throws ExecutionException, InterruptedException {
-        ApiFuture<QuerySnapshot> query = firestore.collection("predictions").get();
-        QuerySnapshot snapshot = query.get();
+        QuerySnapshot snapshot = FirestoreMetrics.get("PredService.getAllPredictions", "predictions",
+                firestore.collection("predictions").get());
         java.util.List<Prediction> list = new java.util.ArrayList<>();
         for (DocumentSnapshot doc : snapshot.getDocuments()) {
             list.add(doc.toObject(Prediction.class));
@@ -78,4 +66,16 @@ public class PredService {
         return list;
     }
 
+    // One page of predictions, ordered by predID
+    public Page<Prediction> getPredictionsPage(Integer limit, String pageToken)
+            throws ExecutionException, InterruptedException {
+        return FirestorePages.fetch("PredService.getPredictionsPage", firestore.collection("predictions"), Prediction.class, limit, pageToken);
+    }
+
+    // Every prediction, decoded and handed over one page at a time
+    public void forEachPrediction(FirestorePages.DocumentHandler<Prediction> handler)
+            throws ExecutionException, InterruptedException, IOException {
+        FirestorePages.forEach("PredService.forEachPrediction", firestore.collection("predictions"), Prediction.class, handler);
+    }
+
 }
@@ -0,0 +1,369 @@
+package com.haelin.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.api.core.ApiFuture;
+import com.google.api.core.ApiFutureCallback;
+import com.google.api.core.ApiFutures;
+import com.google.cloud.firestore.WriteResult;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.haelin.http.DownstreamGuard;
+import com.haelin.http.WebClientConfig;
+import com.haelin.inference.DiseaseModel;
+import com.haelin.inference.DiseaseModels;
+import com.haelin.inference.PredictionCache;
+import com.haelin.model.Prediction;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.ParameterizedTypeReference;
+import org.springframework.http.ResponseEntity;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Symptom checks for Dengue and Chikungunya.
+ *
+ * Requests are grouped by {@link PredictionBatcher} into micro-batches. Each batch is scored
+ * with one call, either in-process when an exported model is loaded or through the FastAPI
+ * service's batch endpoint. The resulting Prediction documents are then saved in one WriteBatch.
+ *
+ * Results are memoized per symptom vector and model version (see {@link PredictionCache}), so
+ * only vectors not seen by the current model are scored at all.
+ */
+@Service
+public class PredictService implements DisposableBean {
+
+    // Matches the pred_date format of the FastAPI services
+    private static final DateTimeFormatter PRED_DATE = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+
+    // Header the FastAPI batch endpoints use to report which model answered
+    private static final String MODEL_VERSION_HEADER = "X-Model-Version";
+
+    private static final Logger log = LoggerFactory.getLogger(PredictService.class);
+
+    private final WebClient webClient;
+    private final DiseaseModels diseaseModels;
+    private final PredService predService;
+    private final ObjectMapper objectMapper;
+    private final boolean persist;
+
+    private final PredictionBatcher dengueBatcher;
+    private final PredictionBatcher chikunBatcher;
+
+    private final Map<String, Disease> diseases = new ConcurrentHashMap<>();
+
+    // Model version last reported by each remote service; no caching for a disease until known
+    private final Map<String, String> remoteVersions = new ConcurrentHashMap<>();
+
+    // Runs the ID allocation and batch commit of each save, which may block
+    private final ExecutorService saveExecutor = Executors.newVirtualThreadPerTaskExecutor();
+
+    @Autowired
+    public PredictService(WebClient downstreamWebClient, DiseaseModels diseaseModels, PredService predService,
+                          DownstreamGuard dengueGuard, DownstreamGuard chikunGuard,
+                          ObjectMapper objectMapper, MeterRegistry meterRegistry,
+                          @Value("${haelin.predict.dengue-batch-url:http://127.0.0.1:8001/predict_dengue_batch}") String dengueBatchUrl,
+                          @Value("${haelin.predict.chikun-batch-url:http://127.0.0.1:8085/predict_chikun_batch}") String chikunBatchUrl,
+                          @Value("${haelin.predict.dengue-health-url:http://127.0.0.1:8001/health}") String dengueHealthUrl,
+                          @Value("${haelin.predict.chikun-health-url:http://127.0.0.1:8085/health}") String chikunHealthUrl,
+                          @Value("${haelin.predict.cache.capacity:65536}") int cacheCapacity,
+                          @Value("${haelin.predict.persist:true}") boolean persist,
+                          @Value("${haelin.predict.batch.max-size:64}") int maxBatchSize,
+                          @Value("${haelin.predict.batch.max-wait-ms:5}") long maxWaitMs,
+                          @Value("${haelin.predict.batch.queue-capacity:10000}") int queueCapacity) {
+        this.webClient = downstreamWebClient;
+        this.diseaseModels = diseaseModels;
+        this.predService = predService;
+        this.objectMapper = objectMapper;
+        this.persist = persist;
+        diseases.put(DiseaseModels.DENGUE, new Disease(DiseaseModels.DENGUE, dengueHealthUrl, dengueGuard, cacheCapacity, meterRegistry));
+        diseases.put(DiseaseModels.CHIKUN, new Disease(DiseaseModels.CHIKUN, chikunHealthUrl, chikunGuard, cacheCapacity, meterRegistry));
+
+        // One Firestore WriteBatch per inference batch, so never more than 500 rows
+        int batchSize = Math.min(maxBatchSize, 500);
+        this.dengueBatcher = new PredictionBatcher(DiseaseModels.DENGUE, batchSize, maxWaitMs, queueCapacity,
+                rows -> handleBatch(DiseaseModels.DENGUE, "Dengue", DiseaseModels.DENGUE_FEATURES, dengueBatchUrl, rows));
+        this.chikunBatcher = new PredictionBatcher(DiseaseModels.CHIKUN, batchSize, maxWaitMs, queueCapacity,
+                rows -> handleBatch(DiseaseModels.CHIKUN, "Chikungunya", DiseaseModels.CHIKUN_FEATURES, chikunBatchUrl, rows));
+    }
+
+    public Mono<String> predictDengue(Map<String, Object> payload) {
+        return submit(DiseaseModels.DENGUE, dengueBatcher, DiseaseModels.DENGUE_FEATURES, payload);
+    }
+
+    public Mono<String> predictChikun(Map<String, Object> payload) {
+        return submit(DiseaseModels.CHIKUN, chikunBatcher, DiseaseModels.CHIKUN_FEATURES, payload);
+    }
+
+    // Validated before queueing, so one malformed request cannot fail a whole batch
+    private Mono<String> submit(String disease, PredictionBatcher batcher, List<String> features,
+                                Map<String, Object> payload) {
+        return Mono.defer(() -> {
+            float[] row = toFeatures(features, payload);
+            // Nothing to save, so a memoized result is the whole answer
+            if (!persist) {
+                Disease memo = diseases.get(disease);
+                DiseaseModel.Result cached = memo.cache.get(version(disease), PredictionCache.pack(row));
+                if (cached != null) {
+                    memo.hits.increment();
+                    return Mono.just(toJson(cached, LocalDateTime.now().format(PRED_DATE), null));
+                }
+            }
+            return Mono.fromFuture(batcher.submit(row));
+        });
+    }
+
+    private CompletableFuture<List<String>> handleBatch(String disease, String diseaseName, List<String> features,
+                                                        String batchUrl, List<float[]> rows) {
+        Disease memo = diseases.get(disease);
+        String version = version(disease);
+
+        // Memoized rows are filled in directly; only the rest go to the model
+        DiseaseModel.Result[] results = new DiseaseModel.Result[rows.size()];
+        List<Integer> missing = new ArrayList<>();
+        List<float[]> missingRows = new ArrayList<>();
+        for (int i = 0; i < rows.size(); i++) {
+            results[i] = memo.lookup(version, rows.get(i));
+            if (results[i] == null) {
+                missing.add(i);
+                missingRows.add(rows.get(i));
+            }
+        }
+        if (missing.isEmpty()) {
+            return save(diseaseName, Arrays.asList(results));
+        }
+
+        return infer(disease, features, batchUrl, missingRows)
+                .thenCompose(scored -> {
+                    // Stored under the version that actually answered (remote versions come with the response)
+                    String scoredVersion = version(disease);
+                    for (int j = 0; j < missing.size(); j++) {
+                        int i = missing.get(j);
+                        results[i] = scored.get(j);
+                        memo.store(scoredVersion, rows.get(i), results[i]);
+                    }
+                    return save(diseaseName, Arrays.asList(results));
+                });
+    }
+
+    // The loaded model's checksum, else the version the remote service last reported
+    private String version(String disease) {
+        return diseaseModels.get(disease)
+                .map(model -> "onnx:" + model.checksum())
+                .orElseGet(() -> remoteVersions.get(disease));
+    }
+
+    // Picks up a redeployed remote model even when every request is answered from the cache
+    @Scheduled(fixedDelayString = "${haelin.predict.cache.version-check-ms:30000}")
+    public void refreshRemoteVersions() {
+        for (Disease disease : diseases.values()) {
+            if (diseaseModels.get(disease.name).isPresent()) {
+                continue;
+            }
+            webClient.get()
+                    .uri(disease.healthUrl)
+                    .attribute(WebClientConfig.CALL_ATTRIBUTE, "PredictService.refreshRemoteVersions")
+                    .retrieve()
+                    .bodyToMono(new ParameterizedTypeReference<Map<String, Object>>() {})
+                    .timeout(Duration.ofSeconds(5))
+                    .subscribe(health -> {
+                        Object version = health.get("model_version");
+                        if (version != null) remoteVersions.put(disease.name, "remote:" + version);
+                    }, e -> log.debug("Could not read {} model version", disease.name, e));
+        }
+    }
+
+    private CompletableFuture<List<DiseaseModel.Result>> infer(String disease, List<String> features,
+                                                               String batchUrl, List<float[]> rows) {
+        Optional<DiseaseModel> model = diseaseModels.get(disease);
+        if (model.isPresent()) {
+            try {
+                return CompletableFuture.completedFuture(Arrays.asList(model.get().predict(rows.toArray(new float[0][]))));
+            } catch (Exception e) {
+                return CompletableFuture.failedFuture(e);
+            }
+        }
+        return postBatch(disease, features, batchUrl, rows).toFuture();
+    }
+
+    // One HTTP call for the whole batch; the FastAPI side scores it with a single predict().
+    // Guarded per disease: a slow or failing service fails its batches fast instead of stalling them.
+    private Mono<List<DiseaseModel.Result>> postBatch(String disease, List<String> features, String batchUrl,
+                                                      List<float[]> rows) {
+        List<Map<String, Object>> body = new ArrayList<>(rows.size());
+        for (float[] row : rows) {
+            Map<String, Object> item = new LinkedHashMap<>();
+            for (int i = 0; i < row.length; i++) {
+                item.put(features.get(i), Math.round(row[i]));
+            }
+            body.add(item);
+        }
+
+        Mono<ResponseEntity<List<Map<String, Object>>>> call = webClient.post()
+                .uri(batchUrl)
+                .attribute(WebClientConfig.CALL_ATTRIBUTE, "PredictService.postBatch")
+                .bodyValue(body)
+                .retrieve()
+                .toEntity(new ParameterizedTypeReference<List<Map<String, Object>>>() {});
+        return diseases.get(disease).guard.protect(call)
+                .map(response -> {
+                    String version = response.getHeaders().getFirst(MODEL_VERSION_HEADER);
+                    if (version != null) remoteVersions.put(disease, "remote:" + version);
+
+                    List<Map<String, Object>> items = response.getBody() == null ? List.of() : response.getBody();
+                    List<DiseaseModel.Result> results = new ArrayList<>(items.size());
+                    for (Map<String, Object> item : items) {
+                        Object score = item.get("pred_score");
+                        results.add(new DiseaseModel.Result(((Number) item.get("prediction")).intValue(),
+                                score instanceof Number n ? n.doubleValue() : Double.NaN));
+                    }
+                    return results;
+                });
+    }
+
+    // Saves one Prediction per result in a single WriteBatch, then builds each caller's response.
+    // A failed save is logged but still returns the prediction, just without a pred_id.
+    private CompletableFuture<List<String>> save(String diseaseName, List<DiseaseModel.Result> results) {
+        String predDate = LocalDateTime.now().format(PRED_DATE);
+        List<Prediction> predictions = new ArrayList<>(results.size());
+        for (DiseaseModel.Result result : results) {
+            Double score = Double.isNaN(result.getScore()) ? null : result.getScore();
+            predictions.add(new Prediction(null, score, predDate, result.getPrediction() == 1 ? diseaseName : "None"));
+        }
+
+        CompletableFuture<List<String>> responses = new CompletableFuture<>();
+        if (!persist) {
+            responses.complete(toResponses(results, predictions, predDate, false));
+            return responses;
+        }
+
+        // Off the calling thread: remote batches complete on a Netty event loop, and taking IDs can block
+        // on a counter transaction when the leased block runs out
+        try {
+            saveExecutor.execute(() -> {
+                try {
+                    ApiFuture<List<WriteResult>> commit = predService.createPredictions(predictions);
+                    ApiFutures.addCallback(commit, new ApiFutureCallback<List<WriteResult>>() {
+                        @Override
+                        public void onSuccess(List<WriteResult> written) {
+                            responses.complete(toResponses(results, predictions, predDate, true));
+                        }
+
+                        @Override
+                        public void onFailure(Throwable t) {
+                            log.warn("Could not save {} {} predictions", predictions.size(), diseaseName, t);
+                            responses.complete(toResponses(results, predictions, predDate, false));
+                        }
+                    }, MoreExecutors.directExecutor());
+                } catch (Exception e) {
+                    if (e instanceof InterruptedException) Thread.currentThread().interrupt();
+                    log.warn("Could not save {} {} predictions", predictions.size(), diseaseName, e);
+                    responses.complete(toResponses(results, predictions, predDate, false));
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            log.warn("Could not save {} {} predictions", predictions.size(), diseaseName, e);
+            responses.complete(toResponses(results, predictions, predDate, false));
+        }
+        return responses;
+    }
+
+    private List<String> toResponses(List<DiseaseModel.Result> results, List<Prediction> predictions,
+                                     String predDate, boolean saved) {
+        List<String> responses = new ArrayList<>(results.size());
+        for (int i = 0; i < results.size(); i++) {
+            responses.add(toJson(results.get(i), predDate, saved ? predictions.get(i).getPredID() : null));
+        }
+        return responses;
+    }
+
+    static float[] toFeatures(List<String> features, Map<String, Object> payload) {
+        float[] row = new float[features.size()];
+        for (int i = 0; i < row.length; i++) {
+            Object value = payload.get(features.get(i));
+            if (value instanceof Number number) {
+                row[i] = number.floatValue();
+            } else if (value instanceof Boolean flag) {
+                row[i] = flag ? 1 : 0;
+            } else {
+                throw new IllegalArgumentException("Missing or non-numeric field: " + features.get(i));
+            }
+        }
+        return row;
+    }
+
+    // Same response shape as the FastAPI services, plus the saved prediction's ID
+    private String toJson(DiseaseModel.Result result, String predDate, String predId) {
+        Map<String, Object> body = new LinkedHashMap<>();
+        body.put("prediction", result.getPrediction());
+        body.put("pred_score", Double.isNaN(result.getScore()) ? null : result.getScore());
+        body.put("pred_date", predDate);
+        if (predId != null) body.put("pred_id", predId);
+        try {
+            return objectMapper.writeValueAsString(body);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    // Per-disease remote guard and result cache with hit/miss counters
+    private static final class Disease {
+        private final String name;
+        private final String healthUrl;
+        private final DownstreamGuard guard;
+        private final PredictionCache cache;
+        private final Counter hits;
+        private final Counter misses;
+
+        private Disease(String name, String healthUrl, DownstreamGuard guard, int capacity,
+                        MeterRegistry meterRegistry) {
+            this.name = name;
+            this.healthUrl = healthUrl;
+            this.guard = guard;
+            this.cache = new PredictionCache(capacity);
+            this.hits = Counter.builder("haelin.predict.cache").tag("disease", name).tag("result", "hit")
+                    .register(meterRegistry);
+            this.misses = Counter.builder("haelin.predict.cache").tag("disease", name).tag("result", "miss")
+                    .register(meterRegistry);
+        }
+
+        private DiseaseModel.Result lookup(String version, float[] row) {
+            DiseaseModel.Result result = cache.get(version, PredictionCache.pack(row));
+            (result != null ? hits : misses).increment();
+            return result;
+        }
+
+        private void store(String version, float[] row, DiseaseModel.Result result) {
+            cache.put(version, PredictionCache.pack(row), result);
+        }
+    }
+
+    @Override
+    public void destroy() {
+        dengueBatcher.close();
+        chikunBatcher.close();
+        saveExecutor.shutdown();
+    }
+}
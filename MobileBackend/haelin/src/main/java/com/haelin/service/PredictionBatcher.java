@@ -0,0 +1,148 @@
+package com.haelin.service;
+
+import io.micrometer.context.ContextSnapshot;
+import io.micrometer.context.ContextSnapshotFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Gathers individual symptom checks into micro-batches.
+ *
+ * A batch is closed when it reaches maxSize or maxWait after its first request, whichever comes
+ * first, and is handed to the handler as one call. The handler returns one response per row,
+ * in order, and each caller's future is completed with its own response.
+ *
+ * Each request's context (the current trace, among others) is captured when it is queued. The
+ * batch runs in the context of its first request, so the downstream call shows up in that
+ * request's trace.
+ */
+final class PredictionBatcher implements AutoCloseable {
+
+    @FunctionalInterface
+    interface BatchHandler {
+        CompletableFuture<List<String>> handle(List<float[]> rows);
+    }
+
+    private static final class Pending {
+        private final float[] row;
+        private final ContextSnapshot context;
+        private final CompletableFuture<String> result = new CompletableFuture<>();
+
+        private Pending(float[] row, ContextSnapshot context) {
+            this.row = row;
+            this.context = context;
+        }
+    }
+
+    private static final Logger log = LoggerFactory.getLogger(PredictionBatcher.class);
+
+    private static final ContextSnapshotFactory CONTEXT = ContextSnapshotFactory.builder().build();
+
+    private final BlockingQueue<Pending> queue;
+    private final int maxSize;
+    private final long maxWaitNanos;
+    private final BatchHandler handler;
+    private final Thread collector;
+
+    private volatile boolean running = true;
+
+    PredictionBatcher(String name, int maxSize, long maxWaitMs, int capacity, BatchHandler handler) {
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        this.maxSize = maxSize;
+        this.maxWaitNanos = TimeUnit.MILLISECONDS.toNanos(maxWaitMs);
+        this.handler = handler;
+        this.collector = new Thread(this::collect, "prediction-batcher-" + name);
+        this.collector.setDaemon(true);
+        this.collector.start();
+    }
+
+    CompletableFuture<String> submit(float[] row) {
+        Pending pending = new Pending(row, CONTEXT.captureAll());
+        // A full queue means we are far behind; refuse now rather than queue into timeouts
+        if (!running || !queue.offer(pending)) {
+            pending.result.completeExceptionally(new RejectedExecutionException("Prediction queue is full"));
+        }
+        return pending.result;
+    }
+
+    private void collect() {
+        List<Pending> batch = new ArrayList<>(maxSize);
+        while (running) {
+            try {
+                Pending first = queue.poll(1, TimeUnit.SECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+
+                long deadline = System.nanoTime() + maxWaitNanos;
+                while (batch.size() < maxSize) {
+                    if (queue.drainTo(batch, maxSize - batch.size()) > 0) {
+                        continue;
+                    }
+                    long remaining = deadline - System.nanoTime();
+                    Pending next = remaining > 0 ? queue.poll(remaining, TimeUnit.NANOSECONDS) : null;
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+
+                dispatch(new ArrayList<>(batch));
+                batch.clear();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        failAll(batch, new RejectedExecutionException("Prediction batcher stopped"));
+    }
+
+    private void dispatch(List<Pending> batch) {
+        List<float[]> rows = new ArrayList<>(batch.size());
+        for (Pending pending : batch) {
+            rows.add(pending.row);
+        }
+
+        CompletableFuture<List<String>> responses;
+        try (ContextSnapshot.Scope scope = batch.get(0).context.setThreadLocals()) {
+            responses = handler.handle(rows);
+        } catch (RuntimeException e) {
+            responses = CompletableFuture.failedFuture(e);
+        }
+
+        responses.whenComplete((results, error) -> {
+            if (error != null) {
+                log.warn("Prediction batch of {} failed", batch.size(), error);
+                failAll(batch, error);
+                return;
+            }
+            for (int i = 0; i < batch.size(); i++) {
+                batch.get(i).result.complete(results.get(i));
+            }
+        });
+    }
+
+    private void failAll(List<Pending> batch, Throwable error) {
+        for (Pending pending : batch) {
+            pending.result.completeExceptionally(error);
+        }
+    }
+
+    @Override
+    public void close() {
+        running = false;
+        collector.interrupt();
+        List<Pending> leftover = new ArrayList<>();
+        queue.drainTo(leftover);
+        failAll(leftover, new RejectedExecutionException("Prediction batcher stopped"));
+    }
+}
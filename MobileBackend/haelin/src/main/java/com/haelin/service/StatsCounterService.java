@@ -0,0 +1,110 @@
+package com.haelin.service;
+
+import com.google.cloud.firestore.*;
+import com.haelin.firebase.FirestoreMetrics;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+
+// Running totals behind /dashboard/stats, kept in counters/dashboardStats.
+// Writers add their increments to the same WriteBatch as the document they change,
+// so a counter moves only when the user or record write itself commits.
+@Service
+public class StatsCounterService {
+
+    private static final String COUNTER_COLLECTION = "counters";
+    private static final String COUNTER_DOC = "dashboardStats";
+
+    static final String USERS_FIELD = "users";
+    static final String CASES_FIELD = "totalCases";
+    static final String DIAGNOSES_FIELD = "diagnoses";
+
+    private final Firestore firestore;
+
+    @Autowired
+    public StatsCounterService(Firestore firestore) {
+        this.firestore = firestore;
+    }
+
+    public void userCreated(WriteBatch batch) {
+        increment(batch, USERS_FIELD, 1);
+    }
+
+    public void userDeleted(WriteBatch batch) {
+        increment(batch, USERS_FIELD, -1);
+    }
+
+    public void caseAdded(WriteBatch batch, String diagnosis) {
+        batch.set(counterRef(), caseDelta(diagnosis, 1), SetOptions.merge());
+    }
+
+    // One merged increment for many new records, e.g. after a bulk import
+    public void casesAdded(WriteBatch batch, long total, Map<String, Long> byDiagnosis) {
+        Map<String, Object> update = new HashMap<>();
+        update.put(CASES_FIELD, FieldValue.increment(total));
+        if (!byDiagnosis.isEmpty()) {
+            Map<String, Object> diagnoses = new HashMap<>();
+            byDiagnosis.forEach((diagnosis, count) -> diagnoses.put(diagnosis, FieldValue.increment(count)));
+            update.put(DIAGNOSES_FIELD, diagnoses);
+        }
+        batch.set(counterRef(), update, SetOptions.merge());
+    }
+
+    public void caseRemoved(WriteBatch batch, String diagnosis) {
+        batch.set(counterRef(), caseDelta(diagnosis, -1), SetOptions.merge());
+    }
+
+    public void diagnosisChanged(WriteBatch batch, String oldDiagnosis, String newDiagnosis) {
+        if (newDiagnosis == null || newDiagnosis.equals(oldDiagnosis)) {
+            return;
+        }
+        Map<String, Object> diagnoses = new HashMap<>();
+        if (oldDiagnosis != null) diagnoses.put(oldDiagnosis, FieldValue.increment(-1));
+        diagnoses.put(newDiagnosis, FieldValue.increment(1));
+
+        Map<String, Object> update = new HashMap<>();
+        update.put(DIAGNOSES_FIELD, diagnoses);
+        batch.set(counterRef(), update, SetOptions.merge());
+    }
+
+    // Single document read; null until the first reconciliation has written the counters
+    public DocumentSnapshot read() throws ExecutionException, InterruptedException {
+        DocumentSnapshot snapshot = FirestoreMetrics.get("StatsCounterService.read", COUNTER_COLLECTION, counterRef().get());
+        return snapshot.exists() ? snapshot : null;
+    }
+
+    // Overwrites the totals with freshly counted values
+    public void overwrite(long users, long totalCases, Map<String, Long> diagnoses)
+            throws ExecutionException, InterruptedException {
+        Map<String, Object> values = new HashMap<>();
+        values.put(USERS_FIELD, users);
+        values.put(CASES_FIELD, totalCases);
+        values.put(DIAGNOSES_FIELD, new HashMap<>(diagnoses));
+        values.put("reconciledAt", FieldValue.serverTimestamp());
+        FirestoreMetrics.get("StatsCounterService.overwrite", COUNTER_COLLECTION, counterRef().set(values));
+    }
+
+    private void increment(WriteBatch batch, String field, long delta) {
+        Map<String, Object> update = new HashMap<>();
+        update.put(field, FieldValue.increment(delta));
+        batch.set(counterRef(), update, SetOptions.merge());
+    }
+
+    private Map<String, Object> caseDelta(String diagnosis, long delta) {
+        Map<String, Object> update = new HashMap<>();
+        update.put(CASES_FIELD, FieldValue.increment(delta));
+        if (diagnosis != null) {
+            Map<String, Object> diagnoses = new HashMap<>();
+            diagnoses.put(diagnosis, FieldValue.increment(delta));
+            update.put(DIAGNOSES_FIELD, diagnoses);
+        }
+        return update;
+    }
+
+    private DocumentReference counterRef() {
+        return firestore.collection(COUNTER_COLLECTION).document(COUNTER_DOC);
+    }
+}
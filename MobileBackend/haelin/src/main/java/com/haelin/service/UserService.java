@@ -1,15 +1,29 @@
 package com.haelin.service;
 
-import com.google.api.core.ApiFuture;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
 import com.google.cloud.firestore.*;
 import com.google.firebase.auth.FirebaseAuth;
 import com.google.firebase.auth.FirebaseToken;
 import com.google.firebase.auth.UserRecord;
 import com.google.firebase.cloud.FirestoreClient;
+import com.haelin.auth.TokenVerifier;
+import com.haelin.firebase.FirestoreMetrics;
+import com.haelin.model.Page;
 import com.haelin.model.User;
+import com.haelin.repository.FirestorePages;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
+import java.io.IOException;
+import java.time.Duration;
 import java.util.ArrayList;
+import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -20,6 +34,29 @@ public class UserService {
 
     private static final String COLLECTION_NAME = "users";
 
+    private static final Logger log = LoggerFactory.getLogger(UserService.class);
+
+    private final StatsCounterService statsCounterService;
+    private final TokenVerifier tokenVerifier;
+
+    // Bounded cache of user profiles by UID; dropped whenever a user is updated or deleted
+    private final Cache<String, User> profiles;
+
+    @Autowired
+    public UserService(StatsCounterService statsCounterService, TokenVerifier tokenVerifier,
+                       MeterRegistry meterRegistry,
+                       @Value("${haelin.auth.profile-cache-size:10000}") long maxProfiles,
+                       @Value("${haelin.auth.profile-cache-ttl-minutes:10}") long profileTtlMinutes) {
+        this.statsCounterService = statsCounterService;
+        this.tokenVerifier = tokenVerifier;
+        this.profiles = Caffeine.newBuilder()
+                .maximumSize(maxProfiles)
+                .expireAfterWrite(Duration.ofMinutes(profileTtlMinutes))
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, profiles, "userProfiles");
+    }
+
     // Add a new user
     public String signup(User user) throws Exception {
         // Validate role
@@ -35,11 +72,17 @@ public class UserService {
         UserRecord firebaseUser = FirebaseAuth.getInstance().createUser(request);
         String uid = firebaseUser.getUid();
 
+        // Role as a custom claim, so every later token carries it and no profile lookup is needed
+        FirebaseAuth.getInstance().setCustomUserClaims(uid, Map.of("role", user.getRole().toUpperCase()));
+
         // 2. Store additional details in Firestore
         user.setUserId(uid);           // use Firebase UID as doc ID
         user.setPassword(null);    // don't store password in Firestore
         Firestore db = FirestoreClient.getFirestore();
-        db.collection("users").document(uid).set(user).get();
+        WriteBatch batch = db.batch();
+        batch.set(db.collection("users").document(uid), user);
+        statsCounterService.userCreated(batch);
+        FirestoreMetrics.get("UserService.signup", COLLECTION_NAME, batch.commit());
 
         return "User created successfully with UID: " + uid + " and role: " + user.getRole();
     }
@@ -48,20 +91,36 @@ public class UserService {
 
     // Get a single user by UID
     public User getUser(String uid) throws ExecutionException, InterruptedException {
+        // Callers get their own copy; the cached profile is never handed out, so it cannot be changed under the cache
+        User cached = profiles.getIfPresent(uid);
+        if (cached != null) {
+            return copyOf(cached);
+        }
+
         Firestore db = FirestoreClient.getFirestore();
         DocumentReference docRef = db.collection(COLLECTION_NAME).document(uid);
-        DocumentSnapshot snapshot = docRef.get().get();
+        DocumentSnapshot snapshot = FirestoreMetrics.get("UserService.getUser", COLLECTION_NAME, docRef.get());
         if (snapshot.exists()) {
-            return snapshot.toObject(User.class);
+            User user = snapshot.toObject(User.class);
+            if (user != null) profiles.put(uid, copyOf(user));
+            return user;
         }
         return null;
     }
 
+    private static User copyOf(User user) {
+        User copy = new User(user.getUserId(), user.getName(), user.getNic(), user.getEmail(),
+                user.getCity(), user.getContact(), user.getPassword(),
+                user.getCreatedAt() == null ? null : new Date(user.getCreatedAt().getTime()));
+        copy.setRole(user.getRole());
+        return copy;
+    }
+
     // Get all users
     public List<User> getAllUsers() throws ExecutionException, InterruptedException {
         Firestore db = FirestoreClient.getFirestore();
-        ApiFuture<QuerySnapshot> query = db.collection(COLLECTION_NAME).get();
-        List<QueryDocumentSnapshot> documents = query.get().getDocuments();
+        List<QueryDocumentSnapshot> documents = FirestoreMetrics.get("UserService.getAllUsers", COLLECTION_NAME,
+                db.collection(COLLECTION_NAME).get()).getDocuments();
 
         List<User> userList = new ArrayList<>();
         for (QueryDocumentSnapshot doc : documents) {
@@ -70,12 +129,25 @@ public class UserService {
         return userList;
     }
 
+    // One page of users, ordered by UID
+    public Page<User> getUsersPage(Integer limit, String pageToken) throws ExecutionException, InterruptedException {
+        Firestore db = FirestoreClient.getFirestore();
+        return FirestorePages.fetch("UserService.getUsersPage", db.collection(COLLECTION_NAME), User.class, limit, pageToken);
+    }
+
+    // Every user, decoded and handed over one page at a time
+    public void forEachUser(FirestorePages.DocumentHandler<User> handler)
+            throws ExecutionException, InterruptedException, IOException {
+        Firestore db = FirestoreClient.getFirestore();
+        FirestorePages.forEach("UserService.forEachUser", db.collection(COLLECTION_NAME), User.class, handler);
+    }
+
     // Update a user by UID
     public String updateUser(String userId, User user) throws ExecutionException, InterruptedException {
         Firestore db = FirestoreClient.getFirestore();
         DocumentReference docRef = db.collection(COLLECTION_NAME).document(userId);
 
-        DocumentSnapshot snapshot = docRef.get().get();
+        DocumentSnapshot snapshot = FirestoreMetrics.get("UserService.updateUser", COLLECTION_NAME, docRef.get());
         if (!snapshot.exists()) {
             return "User with ID " + userId + " does not exist.";
         }
@@ -93,8 +165,10 @@ public class UserService {
             return "No fields to update.";
         }
 
-        ApiFuture<WriteResult> writeResult = docRef.update(updates);
-        return "User " + userId + " updated at: " + writeResult.get().getUpdateTime();
+        WriteResult writeResult = FirestoreMetrics.get("UserService.updateUser", COLLECTION_NAME, docRef.update(updates));
+        String updateTime = writeResult.getUpdateTime().toString();
+        profiles.invalidate(userId);
+        return "User " + userId + " updated at: " + updateTime;
     }
 
 
@@ -104,13 +178,18 @@ public class UserService {
         Firestore db = FirestoreClient.getFirestore();
         DocumentReference docRef = db.collection(COLLECTION_NAME).document(userId);
 
-        DocumentSnapshot snapshot = docRef.get().get();
+        DocumentSnapshot snapshot = FirestoreMetrics.get("UserService.deleteUser", COLLECTION_NAME, docRef.get());
         if (!snapshot.exists()) {
             return "User with ID " + userId + " does not exist.";
         }
 
-        ApiFuture<WriteResult> writeResult = docRef.delete();
-        return "User " + userId + " deleted at: " + writeResult.get().getUpdateTime();
+        WriteBatch batch = db.batch();
+        batch.delete(docRef);
+        statsCounterService.userDeleted(batch);
+
+        List<WriteResult> results = FirestoreMetrics.get("UserService.deleteUser", COLLECTION_NAME, batch.commit());
+        profiles.invalidate(userId);
+        return "User " + userId + " deleted at: " + results.get(0).getUpdateTime();
     }
 
     public User verifyToken(String idToken) throws Exception {
@@ -118,38 +197,32 @@ public class UserService {
             throw new Exception("ID token is required");
         }
 
-        // 1️⃣ Verify Firebase ID token
+        // 1️⃣ Verify Firebase ID token (cached until the token expires)
         FirebaseToken decodedToken;
         try {
-            decodedToken = FirebaseAuth.getInstance().verifyIdToken(idToken);
+            decodedToken = tokenVerifier.verify(idToken);
         } catch (Exception e) {
             throw new Exception("Invalid or expired Firebase token: " + e.getMessage());
         }
 
         String uid = decodedToken.getUid();
 
-        // 2️⃣ Fetch the user from Firestore
-        Firestore db = FirestoreClient.getFirestore();
-        DocumentSnapshot doc;
+        // 2️⃣ Fetch the user profile (from cache, else Firestore)
+        User user;
         try {
-            doc = db.collection("users").document(uid).get().get();
+            user = getUser(uid);
         } catch (Exception e) {
             throw new Exception("Error fetching user from Firestore: " + e.getMessage());
         }
 
-        if (!doc.exists()) {
-            throw new Exception("User not found in Firestore for UID: " + uid);
-        }
-
-        User user = doc.toObject(User.class);
         if (user == null) {
-            throw new Exception("Failed to parse Firestore user data");
+            throw new Exception("User not found in Firestore for UID: " + uid);
         }
 
         // 3️⃣ Optional: Log if token email differs from Firestore email
         if (user.getEmail() != null &&
                 !user.getEmail().trim().equalsIgnoreCase(decodedToken.getEmail().trim())) {
-            System.out.println("⚠️ Warning: token email and Firestore email differ");
+            log.warn("Token email and Firestore email differ for user {}", uid);
         }
 
         // 4️⃣ Return user object
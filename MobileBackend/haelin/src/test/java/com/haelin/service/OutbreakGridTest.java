@@ -0,0 +1,31 @@
+package com.haelin.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class OutbreakGridTest {
+
+    @Test
+    void keepsCountsWhenCitiesOutgrowTheInitialCapacity() {
+        OutbreakGrid grid = new OutbreakGrid(7);
+        long day = 20_000;
+
+        // 200 cities crosses the initial capacity of 64 twice, with a known diagnosis each time
+        for (int c = 0; c < 200; c++) {
+            grid.add("City" + c, "Dengue", day, 1);
+            grid.add("City" + c, "Chikungunya", day, 2);
+        }
+
+        List<OutbreakGrid.Series> dengue = grid.query(day, day, null, "Dengue");
+        assertEquals(200, dengue.size());
+        for (OutbreakGrid.Series series : dengue) {
+            assertEquals(1, series.total);
+        }
+        List<OutbreakGrid.Series> last = grid.query(day, day, "City199", "Chikungunya");
+        assertEquals(1, last.size());
+        assertEquals(2, last.get(0).total);
+    }
+}
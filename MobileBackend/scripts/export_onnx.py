@@ -0,0 +1,42 @@
+"""Export a FastAPI predictor's scaler + model to ONNX for in-process inference in haelin.
+
+Usage (from MobileBackend/):
+    pip install skl2onnx
+    python scripts/export_onnx.py Dengue_FastAPI/dengue_model.pkl "Dengue_FastAPI/scaler (1).pkl" 4 haelin/models/dengue.onnx
+    python scripts/export_onnx.py Chikun_FastAPI/chik_model.pkl Chikun_FastAPI/scaler.pkl 15 haelin/models/chikun.onnx
+
+The scaler and classifier are exported as one pipeline, so the Java side feeds raw symptom
+values in the same order as main.py. ZipMap is disabled so probabilities come out as a plain
+[rows, classes] float tensor.
+"""
+import sys
+
+import joblib
+from skl2onnx import convert_sklearn
+from skl2onnx.common.data_types import FloatTensorType
+from sklearn.pipeline import Pipeline
+
+
+def main():
+    if len(sys.argv) != 5:
+        print(__doc__)
+        sys.exit(1)
+
+    model_path, scaler_path, n_features, out_path = sys.argv[1:]
+    model = joblib.load(model_path)
+    scaler = joblib.load(scaler_path)
+
+    pipeline = Pipeline([("scaler", scaler), ("model", model)])
+    onnx_model = convert_sklearn(
+        pipeline,
+        initial_types=[("input", FloatTensorType([None, int(n_features)]))],
+        options={id(model): {"zipmap": False}},
+    )
+
+    with open(out_path, "wb") as f:
+        f.write(onnx_model.SerializeToString())
+    print(f"Wrote {out_path}")
+
+
+if __name__ == "__main__":
+    main()